@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.googlecode.loosejar;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording class loads on eight threads at once through
+ * {@link ClassLoadRecorder#transform(ClassLoader, String, Class, ProtectionDomain, byte[])}. Every
+ * shot records a batch of distinct classes per thread into a fresh recorder, a quarter of them
+ * generated lambdas which are subject to the cap.
+ *
+ * @author Kyrill Alyoshin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(8)
+public class ClassLoadRecorderBenchmark {
+    @Param({"1000", "100000"})
+    private int classes;
+
+    private final ClassLoader classLoader = new URLClassLoader(new URL[0]);
+    private final AtomicInteger threads = new AtomicInteger();
+    private ClassLoadRecorder recorder;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        recorder = new ClassLoadRecorder(10000, 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        private String[] names;
+        private ProtectionDomain[] domains;
+
+        @Setup
+        public void setUp(ClassLoadRecorderBenchmark benchmark) throws Exception {
+            int thread = benchmark.threads.getAndIncrement();
+            ProtectionDomain jar = new ProtectionDomain(
+                    new CodeSource(new URL("file:/lib/jar" + thread + ".jar"), (Certificate[]) null), null);
+            names = new String[benchmark.classes];
+            domains = new ProtectionDomain[names.length];
+            for (int i = 0; i < names.length; i++) {
+                boolean generated = i % 4 == 3;
+                names[i] = "com/example/t" + thread + "/Class" + i + (generated ? "$$Lambda$" + i : "");
+                domains[i] = generated ? null : jar;
+            }
+        }
+    }
+
+    @Benchmark
+    public void record(Batch batch) {
+        String[] names = batch.names;
+        for (int i = 0; i < names.length; i++) {
+            recorder.transform(classLoader, names[i], null, batch.domains[i], null);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Listing the classes of a single jar: the central directory reader against {@link JarFile}, and
+ * the complete construction of a {@link JarArchive} with the index cache switched off.
+ *
+ * @author Kyrill Alyoshin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dloosejar.indexCache=false")
+public class JarListingBenchmark {
+    @Param({"10", "1000", "100000"})
+    private int entries;
+
+    private SyntheticClasspath classpath;
+    private File jar;
+
+    @Setup
+    public void setUp() throws IOException {
+        classpath = new SyntheticClasspath(1, entries);
+        jar = classpath.getJars().get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        classpath.delete();
+    }
+
+    @Benchmark
+    public List<String> centralDirectory() throws IOException {
+        return CentralDirectoryReader.readClassNames(jar);
+    }
+
+    @Benchmark
+    public List<String> jarFile() throws IOException {
+        JarFile jarFile = new JarFile(jar);
+        try {
+            List<String> names = new ArrayList<String>();
+            Enumeration<JarEntry> e = jarFile.entries();
+            while (e.hasMoreElements()) {
+                String name = e.nextElement().getName();
+                if (name.endsWith(".class")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+            return names;
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    @Benchmark
+    public JarArchive jarArchive() {
+        return new JarArchive(jar, new JarIndex(jar));
+    }
+}
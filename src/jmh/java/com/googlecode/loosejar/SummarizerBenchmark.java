@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.googlecode.loosejar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.loosejar.output.CSVFormatSummarizer;
+import com.googlecode.loosejar.output.Summarizer;
+import com.googlecode.loosejar.output.VerbalSummarizer;
+
+/**
+ * A complete summary of a single classloader by each of the summarizers, written to an output
+ * that discards everything. The jar index cache is used, as it would be on any report but the
+ * first one.
+ *
+ * @author Kyrill Alyoshin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dloosejar.indexDir=target/benchmark-index")
+public class SummarizerBenchmark {
+    @Param({"1", "100", "1000"})
+    private int jars;
+
+    @Param({"1000", "100000"})
+    private int classes;
+
+    private SyntheticClasspath classpath;
+    private URLClassLoader classLoader;
+    private Map<ClassLoader, List<String>> classLoaderMap;
+
+    private final Writer nullWriter = new Writer() {
+        @Override
+        public void write(char[] buf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        classpath = new SyntheticClasspath(jars, classes);
+        classLoader = classpath.newClassLoader();
+        classLoaderMap = Collections.<ClassLoader, List<String>>singletonMap(classLoader,
+                classpath.sampleClassNames(0.25));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classLoader.close();
+        classpath.delete();
+    }
+
+    @Benchmark
+    public void verbal() throws IOException {
+        summarize(new VerbalSummarizer());
+    }
+
+    @Benchmark
+    public void csv() throws IOException {
+        summarize(new CSVFormatSummarizer());
+    }
+
+    private void summarize(Summarizer summarizer) throws IOException {
+        summarizer.summarize(classLoaderMap, nullWriter);
+    }
+}
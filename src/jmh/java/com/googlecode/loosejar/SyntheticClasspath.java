@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates jars with synthetic class entries, so the benchmarks run against classpaths of a
+ * known shape. Class names are spread over a handful of packages per jar, the way real libraries
+ * are, and a fixed seed makes every run produce the same classpath.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class SyntheticClasspath {
+    private static final int CLASSES_PER_PACKAGE = 40;
+
+    private final File directory;
+    private final List<File> jars = new ArrayList<File>();
+    private final List<String> classNames = new ArrayList<String>();
+
+    /**
+     * Create the supplied number of jars sharing the supplied number of classes between them;
+     * every jar gets at least one class.
+     */
+    SyntheticClasspath(int jarCount, int classCount) throws IOException {
+        directory = File.createTempFile("loosejar-bench", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create [" + directory + "]");
+        }
+
+        int perJar = Math.max(1, classCount / jarCount);
+        for (int i = 0; i < jarCount; i++) {
+            File jar = new File(directory, "lib-" + i + ".jar");
+            writeJar(jar, i, perJar);
+            jars.add(jar);
+        }
+    }
+
+    private void writeJar(File jar, int index, int classCount) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        byte[] body = new byte[512];
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            for (int i = 0; i < classCount; i++) {
+                String className = "com.example.lib" + index + ".pkg" + (i / CLASSES_PER_PACKAGE)
+                        + ".internal.SyntheticClass" + i;
+                classNames.add(className);
+                out.putNextEntry(new ZipEntry(className.replace('.', '/') + ".class"));
+                out.write(body);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    List<File> getJars() {
+        return jars;
+    }
+
+    List<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Return a random sample of the class names, as if the supplied fraction of them was loaded.
+     */
+    List<String> sampleClassNames(double fraction) {
+        Random random = new Random(42);
+        List<String> sample = new ArrayList<String>();
+        for (String className : classNames) {
+            if (random.nextDouble() < fraction) {
+                sample.add(className);
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Return a classloader over all of the jars which does not delegate to the application classpath.
+     */
+    URLClassLoader newClassLoader() throws MalformedURLException {
+        URL[] urls = new URL[jars.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = jars.get(i).toURI().toURL();
+        }
+        return new URLClassLoader(urls, null);
+    }
+
+    void delete() {
+        for (File jar : jars) {
+            //noinspection ResultOfMethodCallIgnored
+            jar.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+}
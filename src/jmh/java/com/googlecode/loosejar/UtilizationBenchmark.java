@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.googlecode.loosejar;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.googlecode.loosejar.org.apache.commons.collections15.CollectionUtils;
+
+/**
+ * Working out which classes of each jar have been loaded: {@link ClassLoaderAnalyzer#analyze()}
+ * against the original {@link CollectionUtils#intersection} per jar, and the discovery of the jars
+ * through {@link ClassLoaderAnalyzer#findManifestResources()}. A quarter of the classes is loaded.
+ *
+ * @author Kyrill Alyoshin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dloosejar.indexCache=false")
+public class UtilizationBenchmark {
+    @Param({"1", "100", "1000"})
+    private int jars;
+
+    @Param({"10", "1000", "100000"})
+    private int classes;
+
+    private SyntheticClasspath classpath;
+    private URLClassLoader classLoader;
+    private List<String> loadedClasses;
+    private ClassLoaderAnalyzer analyzer;
+
+    @Setup
+    public void setUp() throws IOException {
+        classpath = new SyntheticClasspath(jars, classes);
+        classLoader = classpath.newClassLoader();
+        loadedClasses = classpath.sampleClassNames(0.25);
+        analyzer = new ClassLoaderAnalyzer(classLoader, loadedClasses);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classLoader.close();
+        classpath.delete();
+    }
+
+    @Benchmark
+    public ClassLoaderAnalyzer analyze() {
+        analyzer.analyze();
+        return analyzer;
+    }
+
+    @Benchmark
+    public void intersection(Blackhole blackhole) {
+        for (JarArchive jar : analyzer.getJars()) {
+            Collection<String> used = CollectionUtils.intersection(loadedClasses, jar.getAllClassNames());
+            blackhole.consume(used);
+        }
+    }
+
+    @Benchmark
+    public List<String> findManifestResources() throws IOException {
+        return analyzer.findManifestResources();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.googlecode.loosejar.output.BinarySummarizer.*;
+
+/**
+ * Reads the binary snapshots written by the <code>binary</code> output format (see
+ * {@link com.googlecode.loosejar.output.BinarySummarizer}) back into the loaded classes of each jar,
+ * the union over all the classloaders which have seen the jar. Snapshots copied from the console
+ * or from JMX, where they are encoded in Base64, are read as well, and so are those of version 1.
+ * A snapshot which is corrupt or truncated is rejected with an <code>IOException</code>.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class BinarySnapshotReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // the Base64 encoding of the magic bytes, which takes up the first 30 bits of the snapshot
+    private static final byte[] BASE64_MAGIC =
+            Arrays.copyOf(Base64.getEncoder().encode(Arrays.copyOf(MAGIC, 6)), 5);
+    private static final int MAX_LEADING_WHITESPACE = 1024;
+
+    private final DataInputStream in;
+    private final long length;
+    private final List<String> strings = new ArrayList<String>();
+    private final List<String> classes = new ArrayList<String>();
+    private long version;
+
+    /**
+     * @param length the length of the snapshot; no string in it can be longer
+     */
+    private BinarySnapshotReader(InputStream in, long length) {
+        this.in = new DataInputStream(in);
+        this.length = length;
+    }
+
+    /**
+     * Return <code>true</code> if the supplied file starts like a binary snapshot, either as is or
+     * encoded in Base64.
+     */
+    static boolean isBinary(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return isBase64(in) || startsWith(in, MAGIC);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the supplied snapshot returning the jars, sorted by path, along with their total number
+     * of classes and their loaded classes. Jars which have not been analyzed are left out.
+     */
+    static SortedMap<File, Usage> read(File snapshot) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(snapshot));
+        try {
+            if (isBase64(in)) {
+                // line breaks and surrounding white space are skipped by the MIME decoder
+                in = Base64.getMimeDecoder().wrap(in);
+            }
+            return new BinarySnapshotReader(in, snapshot.length()).read();
+        } catch (EOFException e) {
+            throw new IOException("[" + snapshot + "] is truncated");
+        } catch (IOException e) {
+            throw new IOException("[" + snapshot + "] is corrupt: " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return <code>true</code> if the supplied stream, which must support marks, starts with a
+     * snapshot encoded in Base64, leaving the stream where it was.
+     */
+    private static boolean isBase64(InputStream in) throws IOException {
+        in.mark(MAX_LEADING_WHITESPACE + BASE64_MAGIC.length + 1);
+        try {
+            int b = in.read();
+            for (int i = 0; i < MAX_LEADING_WHITESPACE && b >= 0 && Character.isWhitespace(b); i++) {
+                b = in.read();
+            }
+            for (byte expected : BASE64_MAGIC) {
+                if (b != expected) {
+                    return false;
+                }
+                b = in.read();
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static boolean startsWith(InputStream in, byte[] prefix) throws IOException {
+        byte[] start = new byte[prefix.length];
+        return new DataInputStream(in).read(start) == start.length && Arrays.equals(start, prefix);
+    }
+
+    private SortedMap<File, Usage> read() throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a binary snapshot");
+        }
+        version = readVarint();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported binary snapshot version " + version);
+        }
+        // the time, the JVM and the Java version
+        readVarint();
+        readString();
+        readString();
+
+        SortedMap<File, Usage> jars = new TreeMap<File, Usage>();
+        for (long tag; (tag = readVarint()) != END; ) {
+            if (tag == SKIPPED_LOADER && version > 1) {
+                readStringRef();
+                continue;
+            }
+            if (tag == PARTIAL && version > 1) {
+                readVarint();
+                readVarint();
+                continue;
+            }
+            if (tag != LOADER) {
+                throw new IOException("unknown record " + tag);
+            }
+            readStringRef();
+            for (long jarCount = readVarint(); jarCount > 0; jarCount--) {
+                File jar = new File(readStringRef());
+                if (readVarint() == SKIPPED) {
+                    continue;
+                }
+                int totalClasses = (int) readVarint();
+                // the classes size, loaded classes size, compressed classes size and reclaimable size,
+                // then the reachable classes since version 2
+                for (int i = version > 1 ? 5 : 4; i > 0; i--) {
+                    readVarint();
+                }
+
+                Usage usage = jars.get(jar);
+                if (usage == null) {
+                    usage = new Usage();
+                    jars.put(jar, usage);
+                }
+                usage.totalClasses = Math.max(usage.totalClasses, totalClasses);
+                for (long loaded = readVarint(); loaded > 0; loaded--) {
+                    usage.loadedClasses.add(readClassRef());
+                }
+            }
+        }
+        return jars;
+    }
+
+    private String readClassRef() throws IOException {
+        long ref = readVarint();
+        if (ref > 0) {
+            return get(classes, ref - 1);
+        }
+        String packageName = readStringRef();
+        String simpleName = readStringRef();
+        String className = packageName.length() == 0 ? simpleName : packageName + '.' + simpleName;
+        classes.add(className);
+        return className;
+    }
+
+    private String readStringRef() throws IOException {
+        long ref = readVarint();
+        if (ref > 0) {
+            return get(strings, ref - 1);
+        }
+        String s = readString();
+        strings.add(s);
+        return s;
+    }
+
+    private String readString() throws IOException {
+        long stringLength = readVarint();
+        if (stringLength > length) {
+            throw new IOException("string length " + stringLength + " exceeds the snapshot");
+        }
+        byte[] utf8 = new byte[(int) stringLength];
+        in.readFully(utf8);
+        return new String(utf8, UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static String get(List<String> table, long index) throws IOException {
+        if (index >= table.size()) {
+            throw new IOException("undefined reference " + index);
+        }
+        return table.get((int) index);
+    }
+
+    /**
+     * The total number of classes of a jar and the classes loaded from it.
+     */
+    static final class Usage {
+        private int totalClasses;
+        private final SortedSet<String> loadedClasses = new TreeSet<String>();
+
+        int getTotalClasses() {
+            return totalClasses;
+        }
+
+        SortedSet<String> getLoadedClasses() {
+            return loadedClasses;
+        }
+    }
+}
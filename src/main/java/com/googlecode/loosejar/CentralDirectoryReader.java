@@ -0,0 +1,437 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * A lightweight reader of the zip central directory. Listing the classes of a jar does not need
+ * any of the inflater, manifest or signature machinery of {@link java.util.jar.JarFile}, nor a
+ * {@link java.util.zip.ZipEntry} per entry; this reader maps the archive with
+ * {@link FileChannel#map} and walks the end of central directory record and the central directory
+ * in place, decoding only the names of the <code>.class</code> entries. Zip64 archives and
+ * archives with prepended data (such as executable jars with a launch script) are supported.
+ * The data of an entry can be obtained as a slice of the buffer, which is how jars stored inside
+ * other jars are read without being extracted.
+ * <p>
+ * Whenever the reader comes across something it does not understand (multi-disk archives,
+ * names in a legacy encoding, inconsistent offsets) it throws a {@link ZipException}, and the
+ * caller is expected to fall back to {@link java.util.jar.JarFile}.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class CentralDirectoryReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(UTF_8);
+
+    private final ByteBuffer zip;
+
+    // the state of the entry the reader is positioned at
+    private int entryPosition = -1;
+    private int nameLength;
+    private int flags;
+    private int method;
+    private long compressedSize;
+    private long size;
+    private long localHeaderOffset;
+
+    private int nextEntryPosition;
+    private long entriesLeft;
+    private long base;
+
+    /**
+     * Create a reader over the supplied buffer, which must contain the entire archive.
+     */
+    CentralDirectoryReader(ByteBuffer zip) throws ZipException {
+        this.zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        locateCentralDirectory();
+    }
+
+    /**
+     * Map the supplied file and return a reader over it.
+     */
+    static CentralDirectoryReader open(File archive) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(archive, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("archive is too large to be mapped");
+            }
+            // the mapping stays valid after the channel is closed
+            return new CentralDirectoryReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Return the names of all the classes in the supplied archive, in the form of
+     * <code>name.of.package.SomeClass</code>.
+     */
+    static List<String> readClassNames(File archive) throws IOException {
+        return open(archive).readClassNames();
+    }
+
+    /**
+     * Return the names of all the classes in the archive, in the form of
+     * <code>name.of.package.SomeClass</code>.
+     */
+    List<String> readClassNames() throws ZipException {
+        List<String> names = new ArrayList<String>();
+        while (next()) {
+            if (isClass()) {
+                names.add(className());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Return all the classes in the supplied archive along with their sizes.
+     */
+    static ClassEntries readClasses(File archive) throws IOException {
+        return open(archive).readClasses();
+    }
+
+    /**
+     * Return all the classes in the archive along with their sizes.
+     */
+    ClassEntries readClasses() throws ZipException {
+        ClassEntries classes = new ClassEntries();
+        while (next()) {
+            if (isClass()) {
+                classes.add(className(), size, compressedSize);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Advance to the next entry of the central directory returning <code>false</code> when there are
+     * no more entries.
+     */
+    boolean next() throws ZipException {
+        if (entriesLeft == 0) {
+            return false;
+        }
+
+        int pos = nextEntryPosition;
+        if (pos < 0 || pos + CENTRAL_HEADER_LENGTH > zip.limit() || zip.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("invalid central directory header at " + pos);
+        }
+
+        flags = zip.getShort(pos + 8) & 0xFFFF;
+        method = zip.getShort(pos + 10) & 0xFFFF;
+        compressedSize = zip.getInt(pos + 20) & 0xFFFFFFFFL;
+        size = zip.getInt(pos + 24) & 0xFFFFFFFFL;
+        nameLength = zip.getShort(pos + 28) & 0xFFFF;
+        int extraLength = zip.getShort(pos + 30) & 0xFFFF;
+        int commentLength = zip.getShort(pos + 32) & 0xFFFF;
+        localHeaderOffset = zip.getInt(pos + 42) & 0xFFFFFFFFL;
+
+        int end = pos + CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+        if (end > zip.limit()) {
+            throw new ZipException("central directory header at " + pos + " is truncated");
+        }
+        readZip64Extra(pos + CENTRAL_HEADER_LENGTH + nameLength, extraLength);
+        localHeaderOffset += base;
+
+        entryPosition = pos;
+        nextEntryPosition = end;
+        entriesLeft--;
+        return true;
+    }
+
+    /**
+     * Return <code>true</code> if the current entry is a class file.
+     */
+    boolean isClass() {
+        if (nameLength <= CLASS_SUFFIX.length) {
+            return false;
+        }
+        int suffix = entryPosition + CENTRAL_HEADER_LENGTH + nameLength - CLASS_SUFFIX.length;
+        for (int i = 0; i < CLASS_SUFFIX.length; i++) {
+            if (zip.get(suffix + i) != CLASS_SUFFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the class name of the current entry converting
+     * <code>name/of/package/SomeClass.class</code> into <code>name.of.package.SomeClass</code>.
+     */
+    String className() throws ZipException {
+        int start = entryPosition + CENTRAL_HEADER_LENGTH;
+        int length = nameLength - CLASS_SUFFIX.length;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = zip.get(start + i);
+            if (b < 0) {
+                return decodeUtf8(start, length).replace('/', '.');
+            }
+            chars[i] = b == '/' ? '.' : (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Return the full name of the current entry, such as <code>META-INF/MANIFEST.MF</code>.
+     */
+    String name() throws ZipException {
+        int start = entryPosition + CENTRAL_HEADER_LENGTH;
+        for (int i = 0; i < nameLength; i++) {
+            if (zip.get(start + i) < 0) {
+                return decodeUtf8(start, nameLength);
+            }
+        }
+        char[] chars = new char[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            chars[i] = (char) zip.get(start + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Return <code>true</code> if the name of the current entry consists of the supplied UTF-8 bytes.
+     */
+    boolean nameEquals(byte[] name) {
+        if (nameLength != name.length) {
+            return false;
+        }
+        int start = entryPosition + CENTRAL_HEADER_LENGTH;
+        for (int i = 0; i < name.length; i++) {
+            if (zip.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the compression method of the current entry, such as {@link java.util.zip.ZipEntry#STORED}
+     * or {@link java.util.zip.ZipEntry#DEFLATED}.
+     */
+    int method() {
+        return method;
+    }
+
+    /**
+     * Return the uncompressed size of the current entry.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Return the size of the current entry as stored in the archive.
+     */
+    long compressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Return the raw (possibly compressed) data of the current entry as a slice of the archive
+     * buffer; nothing is copied.
+     */
+    ByteBuffer data() throws ZipException {
+        if (localHeaderOffset < 0 || localHeaderOffset + LOCAL_HEADER_LENGTH > zip.limit()
+                || zip.getInt((int) localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("invalid local header at " + localHeaderOffset);
+        }
+        // the local extra field may differ from the central one
+        int pos = (int) localHeaderOffset;
+        long start = pos + LOCAL_HEADER_LENGTH + (zip.getShort(pos + 26) & 0xFFFF) + (zip.getShort(pos + 28) & 0xFFFF);
+        if (start + compressedSize > zip.limit()) {
+            throw new ZipException("entry data at " + localHeaderOffset + " is truncated");
+        }
+
+        ByteBuffer data = zip.duplicate();
+        data.limit((int) (start + compressedSize));
+        data.position((int) start);
+        return data.slice();
+    }
+
+    /**
+     * Return the central directory header of the current entry, including its name, extra field
+     * and comment, as a slice of the archive buffer.
+     */
+    ByteBuffer centralHeader() {
+        ByteBuffer header = zip.duplicate();
+        header.limit(nextEntryPosition);
+        header.position(entryPosition);
+        return header.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Return the entire local record of the current entry: the local header, the raw data and the
+     * data descriptor following it, if any. Copied verbatim into another archive, the record
+     * needs only its central directory header pointing at its new offset.
+     */
+    ByteBuffer localRecord() throws ZipException {
+        ByteBuffer data = data();
+        int start = (int) localHeaderOffset;
+        int end = (int) (localHeaderOffset + LOCAL_HEADER_LENGTH + (zip.getShort(start + 26) & 0xFFFF)
+                + (zip.getShort(start + 28) & 0xFFFF) + compressedSize);
+        if ((flags & DATA_DESCRIPTOR_FLAG) != 0) {
+            // the signature of the descriptor is optional, and its sizes are 8 bytes long in Zip64
+            int length = (compressedSize >= 0xFFFFFFFFL || size >= 0xFFFFFFFFL) ? 20 : 12;
+            if (end + 4 <= zip.limit() && zip.getInt(end) == DATA_DESCRIPTOR_SIGNATURE) {
+                length += 4;
+            }
+            end += length;
+        }
+        if (end > zip.limit() || data.remaining() != compressedSize) {
+            throw new ZipException("entry data at " + localHeaderOffset + " is truncated");
+        }
+
+        ByteBuffer record = zip.duplicate();
+        record.limit(end);
+        record.position(start);
+        return record.slice();
+    }
+
+    private String decodeUtf8(int start, int length) throws ZipException {
+        if ((flags & UTF8_FLAG) == 0) {
+            // not worth guessing the legacy encoding here
+            throw new ZipException("entry name is not in UTF-8");
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer name = zip.duplicate();
+        name.position(start);
+        name.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void readZip64Extra(int pos, int length) throws ZipException {
+        boolean sizeOverflow = size == 0xFFFFFFFFL;
+        boolean compressedOverflow = compressedSize == 0xFFFFFFFFL;
+        boolean offsetOverflow = localHeaderOffset == 0xFFFFFFFFL;
+        if (!sizeOverflow && !compressedOverflow && !offsetOverflow) {
+            return;
+        }
+
+        int end = pos + length;
+        while (pos + 4 <= end) {
+            int id = zip.getShort(pos) & 0xFFFF;
+            int dataLength = zip.getShort(pos + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA_ID) {
+                int field = pos + 4;
+                int fieldsEnd = field + dataLength;
+                // the fields are present only if their central directory counterparts overflowed
+                if (sizeOverflow && field + 8 <= fieldsEnd) {
+                    size = zip.getLong(field);
+                    field += 8;
+                }
+                if (compressedOverflow && field + 8 <= fieldsEnd) {
+                    compressedSize = zip.getLong(field);
+                    field += 8;
+                }
+                if (offsetOverflow && field + 8 <= fieldsEnd) {
+                    localHeaderOffset = zip.getLong(field);
+                }
+                return;
+            }
+            pos += 4 + dataLength;
+        }
+        throw new ZipException("missing Zip64 extra field");
+    }
+
+    private void locateCentralDirectory() throws ZipException {
+        int end = findEnd();
+
+        if ((zip.getShort(end + 4) & 0xFFFF) != 0 || (zip.getShort(end + 6) & 0xFFFF) != 0) {
+            throw new ZipException("multi-disk archives are not supported");
+        }
+
+        long entries = zip.getShort(end + 10) & 0xFFFF;
+        long directorySize = zip.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = zip.getInt(end + 16) & 0xFFFFFFFFL;
+        long directoryEnd = end;
+
+        if (entries == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            int locator = end - ZIP64_LOCATOR_LENGTH;
+            if (locator < 0 || zip.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new ZipException("missing Zip64 end of central directory locator");
+            }
+            if (zip.getInt(locator + 16) != 1) {
+                throw new ZipException("multi-disk archives are not supported");
+            }
+            long zip64End = zip.getLong(locator + 8);
+            if (zip64End < 0 || zip64End + 56 > locator || zip.getInt((int) zip64End) != ZIP64_END_SIGNATURE) {
+                // the offset is relative to the start of the archive, which may have been prepended
+                zip64End = locator - 56;
+                if (zip64End < 0 || zip.getInt((int) zip64End) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("invalid Zip64 end of central directory record");
+                }
+            }
+            entries = zip.getLong((int) zip64End + 32);
+            directorySize = zip.getLong((int) zip64End + 40);
+            directoryOffset = zip.getLong((int) zip64End + 48);
+            directoryEnd = zip64End;
+        }
+
+        // data prepended to the archive shifts every offset by the same amount
+        long directoryStart = directoryEnd - directorySize;
+        if (directoryStart < 0 || directoryOffset > directoryStart) {
+            throw new ZipException("invalid central directory offset");
+        }
+        base = directoryStart - directoryOffset;
+        nextEntryPosition = (int) directoryStart;
+        entriesLeft = entries;
+    }
+
+    private int findEnd() throws ZipException {
+        int last = zip.limit() - END_LENGTH;
+        int first = Math.max(0, last - MAX_COMMENT_LENGTH);
+        for (int pos = last; pos >= first; pos--) {
+            if (zip.getInt(pos) == END_SIGNATURE
+                    && pos + END_LENGTH + (zip.getShort(pos + 20) & 0xFFFF) == zip.limit()) {
+                return pos;
+            }
+        }
+        throw new ZipException("end of central directory record not found");
+    }
+}
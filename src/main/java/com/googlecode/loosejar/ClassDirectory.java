@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import static com.googlecode.loosejar.Constants.*;
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * Lists the classes of an exploded directory classpath entry, such as <code>WEB-INF/classes</code>
+ * or a build output directory. Large directory trees are walked in parallel on a fork/join pool,
+ * one task per subdirectory, sized like the jar scanner by the <code>loosejar.scanThreads</code>
+ * system property.
+ * <p>
+ * The walk does not follow symbolic links, does not descend more than {@link #MAX_DEPTH} levels
+ * (a class in a deeper package would not be reported anyway), and does not cross into another file
+ * system, so a stray mount point under a classpath directory cannot blow up the analysis.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ClassDirectory {
+    static final int MAX_DEPTH = 64;
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static ForkJoinPool pool;
+
+    private ClassDirectory() {
+    }
+
+    /**
+     * Return all the classes under the supplied directory along with their sizes; class files in a
+     * directory are not compressed, so both sizes are the same.
+     */
+    static ClassEntries readClasses(File directory) throws IOException {
+        Path root = directory.toPath();
+        return pool().invoke(new Walk(root, Files.getFileStore(root), "", 0));
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            int threads = Math.max(1, Integer.getInteger("loosejar.scanThreads",
+                    Runtime.getRuntime().availableProcessors()));
+            pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    // fork/join worker threads are daemons and do not linger when idle
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName(PROJECT_NAME + "-walker-" + thread.getPoolIndex());
+                    return thread;
+                }
+            }, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Lists a single directory, forking a task for each of its subdirectories.
+     */
+    private static final class Walk extends RecursiveTask<ClassEntries> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final FileStore store;
+        private final String packagePrefix;
+        private final int depth;
+
+        Walk(Path directory, FileStore store, String packagePrefix, int depth) {
+            this.directory = directory;
+            this.store = store;
+            this.packagePrefix = packagePrefix;
+            this.depth = depth;
+        }
+
+        @Override
+        protected ClassEntries compute() {
+            ClassEntries classes = new ClassEntries();
+            List<Walk> subdirectories = new ArrayList<Walk>();
+            try {
+                DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+                try {
+                    for (Path entry : entries) {
+                        String name = entry.getFileName().toString();
+                        BasicFileAttributes attributes =
+                                Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isRegularFile()) {
+                            if (name.endsWith(CLASS_SUFFIX) && name.length() > CLASS_SUFFIX.length()) {
+                                String simpleName = name.substring(0, name.length() - CLASS_SUFFIX.length());
+                                classes.add(packagePrefix + simpleName, attributes.size(), attributes.size());
+                            }
+                        } else if (attributes.isDirectory() && depth < MAX_DEPTH
+                                && store.equals(Files.getFileStore(entry))) {
+                            Walk walk = new Walk(entry, store, packagePrefix + name + '.', depth + 1);
+                            walk.fork();
+                            subdirectories.add(walk);
+                        }
+                    }
+                } finally {
+                    entries.close();
+                }
+            } catch (IOException e) {
+                log("IGNORED: [" + directory + "]. " + e);
+            }
+
+            for (Walk walk : subdirectories) {
+                classes.addAll(walk.join());
+            }
+            return classes;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The classes found in a jar along with the size of each class file, both uncompressed and as
+ * stored in the jar. Sizes which are not known are recorded as <code>0</code>.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ClassEntries {
+    private final List<String> names = new ArrayList<String>();
+    private int[] sizes = new int[64];
+    private int[] compressedSizes = new int[64];
+
+    /**
+     * Add a class named <code>name.of.package.SomeClass</code>.
+     */
+    void add(String name, long size, long compressedSize) {
+        int i = names.size();
+        if (i == sizes.length) {
+            sizes = Arrays.copyOf(sizes, i * 2);
+            compressedSizes = Arrays.copyOf(compressedSizes, i * 2);
+        }
+        names.add(name);
+        sizes[i] = toInt(size);
+        compressedSizes[i] = toInt(compressedSize);
+    }
+
+    /**
+     * Add all of the classes of the supplied entries.
+     */
+    void addAll(ClassEntries entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            add(entries.name(i), entries.size(i), entries.compressedSize(i));
+        }
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    String name(int i) {
+        return names.get(i);
+    }
+
+    int size(int i) {
+        return sizes[i];
+    }
+
+    int compressedSize(int i) {
+        return compressedSizes[i];
+    }
+
+    /**
+     * Return an unmodifiable view of the class names.
+     */
+    List<String> names() {
+        return Collections.unmodifiableList(names);
+    }
+
+    private static int toInt(long size) {
+        // no class file comes anywhere near 2GB
+        return size < 0 ? 0 : (int) Math.min(size, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * A {@link ClassFileTransformer} that never rewrites any bytecode. It merely notes every class
+ * as it is being defined, grouped by its defining classloader and by the location of its
+ * {@link CodeSource}. This way the cost of finding out what has been loaded is spread across
+ * the application startup and producing a report does not require a walk over
+ * {@link Instrumentation#getAllLoadedClasses()}.
+ * <p>
+ * The recording runs on every thread defining a class, so it takes no locks: classloaders are
+ * looked up in a concurrent map, each class is appended to a lock-free log of the classloader,
+ * and the counters are {@link LongAdder}s. Classloaders are held weakly, so that recording does
+ * not prevent them from being collected, and the records of collected classloaders are dropped.
+ * <p>
+ * Classes generated at runtime (lambdas, proxies, reflection accessors, anything without a code
+ * source and anything whose code source is a file URL naming no file, such as the scripts Groovy
+ * compiles from <code>file:/groovy/script</code>) never belong to a jar, yet some applications
+ * define them without end. Only the
+ * first <code>loosejar.generatedCap</code> of them (10000 by default) are recorded for each
+ * classloader, and only one in <code>loosejar.generatedSampling</code> (1 by default) of those;
+ * the others are merely counted. Whether a file URL names a file is checked once per location and
+ * classloader, when the classloader first defines a class from it; a classloader defining classes
+ * from more than {@link #MAX_LOCATIONS} file locations is making them up, so the locations past the
+ * limit are taken to be made up without looking at the filesystem. The time spent recording is measured too, so loosejar can report
+ * its own overhead.
+ *
+ * @author Kyrill Alyoshin
+ */
+class ClassLoadRecorder implements ClassFileTransformer {
+    private static final String[] GENERATED_MARKERS = {
+            "$$Lambda", "$Proxy", "$$EnhancerBy", "$$FastClassBy", "$$SpringCGLIB$$", "$HibernateProxy$",
+            "$ByteBuddy$", "GeneratedMethodAccessor", "GeneratedConstructorAccessor",
+            "GeneratedSerializationConstructorAccessor"
+    };
+
+    static final int MAX_LOCATIONS = 1024;
+
+    private static volatile ClassLoadRecorder instance;
+
+    private final ConcurrentMap<Object, LoaderRecord> loaders = new ConcurrentHashMap<Object, LoaderRecord>();
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<ClassLoader>();
+
+    private final int generatedCap;
+    private final int generatedSampling;
+
+    // the cost of the recording itself
+    private final LongAdder overhead = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    ClassLoadRecorder(int generatedCap, int generatedSampling) {
+        this.generatedCap = generatedCap;
+        this.generatedSampling = generatedSampling;
+    }
+
+    /**
+     * Register a new recorder with the supplied instrumentation and seed it with the classes
+     * that have been loaded before the registration.
+     */
+    static ClassLoadRecorder install(Instrumentation instrumentation) {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(
+                Math.max(0, Integer.getInteger("loosejar.generatedCap", 10000)),
+                Math.max(1, Integer.getInteger("loosejar.generatedSampling", 1)));
+        instrumentation.addTransformer(recorder);
+        for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+            recorder.record(c.getClassLoader(), c.getName(), location(c.getProtectionDomain()));
+        }
+        instance = recorder;
+        return recorder;
+    }
+
+    /**
+     * Return the installed recorder or <code>null</code> if loosejar is not running in recording mode.
+     */
+    static ClassLoadRecorder getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record the class being defined; the class file buffer is never modified.
+     */
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // redefinitions and retransformations are not new loads
+        if (classBeingRedefined == null && className != null) {
+            long now = System.nanoTime();
+            try {
+                record(loader, className.replace('/', '.'), location(protectionDomain));
+            } catch (Throwable t) {
+                // never let the recording interfere with class loading
+                log("Failed to record the loading of [" + className + "]: " + t);
+            }
+            overhead.add(System.nanoTime() - now);
+        }
+        return null;
+    }
+
+    private void record(ClassLoader loader, String className, String location) {
+        if (loader == null) {
+            return; // we don't need Bootstrap classloader
+        }
+
+        LoaderRecord record = loaders.get(new Lookup(loader));
+        if (record == null) {
+            expungeCollected();
+            LoaderRecord created = new LoaderRecord();
+            record = loaders.putIfAbsent(new LoaderKey(loader, collected), created);
+            if (record == null) {
+                record = created;
+            }
+        }
+
+        if ((isGenerated(className, location) || record.isMadeUp(location)) && !record.contains(className)
+                && !record.admitGenerated(generatedCap, generatedSampling)) {
+            dropped.increment();
+        } else if (record.add(className, location)) {
+            recorded.increment();
+        }
+    }
+
+    private static boolean isGenerated(String className, String location) {
+        if (location == null || className.indexOf('/') >= 0) {
+            return true; // no jar to attribute it to, or a hidden class
+        }
+        for (String marker : GENERATED_MARKERS) {
+            if (className.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expungeCollected() {
+        for (Reference<? extends ClassLoader> key; (key = collected.poll()) != null; ) {
+            loaders.remove(key);
+        }
+    }
+
+    private static String location(ProtectionDomain protectionDomain) {
+        if (protectionDomain == null) {
+            return null;
+        }
+        CodeSource codeSource = protectionDomain.getCodeSource();
+        if (codeSource == null) {
+            return null;
+        }
+        URL url = codeSource.getLocation();
+        return url == null ? null : url.toString();
+    }
+
+    /**
+     * Return a map of classloaders to the names of the classes they have loaded so far, in the
+     * order they were loaded.
+     */
+    Map<ClassLoader, List<String>> snapshot() {
+        Map<ClassLoader, List<String>> map = new HashMap<ClassLoader, List<String>>();
+        for (Map.Entry<Object, LoaderRecord> entry : loaders.entrySet()) {
+            ClassLoader loader = ((LoaderKey) entry.getKey()).get();
+            if (loader != null) {
+                map.put(loader, entry.getValue().getClassNames());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Return the classloaders that have loaded at least one class.
+     */
+    List<ClassLoader> getClassLoaders() {
+        List<ClassLoader> list = new ArrayList<ClassLoader>();
+        for (Object key : loaders.keySet()) {
+            ClassLoader loader = ((LoaderKey) key).get();
+            if (loader != null) {
+                list.add(loader);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Copy the names and code source locations of the classes loaded by the supplied classloader,
+     * starting with the class number <code>from</code> in the order of loading, into the supplied
+     * lists returning the number of classes recorded for the classloader so far. Locations are
+     * <code>null</code> for classes without a code source.
+     */
+    int getRecordedSince(ClassLoader loader, int from, List<String> classNames, List<String> locations) {
+        LoaderRecord record = loaders.get(new Lookup(loader));
+        if (record == null) {
+            return 0;
+        }
+        return record.getRecordedSince(from, classNames, locations);
+    }
+
+    /**
+     * Return the names of the classes loaded by the supplied classloader grouped by the
+     * location of their code source (as a URL string), or an empty map if nothing was recorded.
+     */
+    Map<String, List<String>> getClassNamesByLocation(ClassLoader loader) {
+        LoaderRecord record = loaders.get(new Lookup(loader));
+        if (record == null) {
+            return Collections.emptyMap();
+        }
+        return record.getClassNamesByLocation();
+    }
+
+    /**
+     * Return the time, in nanoseconds, spent recording classes so far.
+     */
+    long getOverhead() {
+        return overhead.sum();
+    }
+
+    /**
+     * Return the number of classes recorded so far.
+     */
+    long getRecordedCount() {
+        return recorded.sum();
+    }
+
+    /**
+     * Return the number of generated classes which have not been recorded because of the cap or
+     * the sampling.
+     */
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * The key of a classloader in the map of records; it does not keep the classloader alive and
+     * is enqueued once the classloader has been collected.
+     */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+        private final int hash;
+
+        LoaderKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            // a collected classloader is only equal to its own key
+            if (o == this) {
+                return true;
+            }
+            ClassLoader loader = get();
+            return loader != null && o instanceof LoaderKey && ((LoaderKey) o).get() == loader;
+        }
+    }
+
+    /**
+     * A short lived key to look a classloader up with, cheaper than a weak reference.
+     */
+    private static final class Lookup {
+        private final ClassLoader loader;
+
+        Lookup(ClassLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LoaderKey && ((LoaderKey) o).get() == loader;
+        }
+    }
+
+    /**
+     * A class as it has been recorded.
+     */
+    private static final class Load {
+        private final String className;
+        private final String location;
+
+        Load(String className, String location) {
+            this.className = className;
+            this.location = location;
+        }
+    }
+
+    /**
+     * Classes recorded for a single classloader. Classes are appended to a log made of chunks of
+     * growing sizes, the first of {@link #FIRST_CHUNK} entries and each following one twice as large
+     * as the one before; a slot is claimed with a single atomic increment and filled in right
+     * after, so readers stop at the first slot which has been claimed but not filled in yet.
+     */
+    private static final class LoaderRecord {
+        // fills a slot of the log which could not be filled with the class it was claimed for
+        private static final Load PLACEHOLDER = new Load(null, null);
+
+        private static final int FIRST_CHUNK_BITS = 5;
+        private static final int FIRST_CHUNK = 1 << FIRST_CHUNK_BITS;
+
+        private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicReferenceArray<AtomicReferenceArray<Load>> chunks =
+                new AtomicReferenceArray<AtomicReferenceArray<Load>>(32 - FIRST_CHUNK_BITS);
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger generated = new AtomicInteger();
+        private final ConcurrentMap<String, Boolean> madeUpLocations = new ConcurrentHashMap<String, Boolean>();
+
+        boolean contains(String className) {
+            return seen.contains(className);
+        }
+
+        /**
+         * Return <code>true</code> if the supplied location is a file URL which names no file or
+         * directory; locations of any other kind are taken to be real. A file location is checked
+         * the first time it is seen, and its result kept, for up to {@link #MAX_LOCATIONS} locations.
+         */
+        boolean isMadeUp(String location) {
+            if (!location.startsWith("file:")) {
+                return false;
+            }
+            Boolean madeUp = madeUpLocations.get(location);
+            if (madeUp == null) {
+                if (madeUpLocations.size() >= MAX_LOCATIONS) {
+                    return true;
+                }
+                File file = ClassLoaderAnalyzer.toFile(location);
+                madeUp = file != null && !file.exists();
+                madeUpLocations.putIfAbsent(location, madeUp);
+            }
+            return madeUp;
+        }
+
+        /**
+         * Return <code>true</code> if another generated class may be recorded.
+         */
+        boolean admitGenerated(int cap, int sampling) {
+            if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+                return false;
+            }
+            return generated.get() < cap && generated.incrementAndGet() <= cap;
+        }
+
+        /**
+         * Append the supplied class to the log returning <code>false</code> if it has already been
+         * recorded; a parallel capable classloader may attempt to define the same class more than once.
+         * <p>
+         * Once a slot of the log has been claimed it must be filled, or the readers would wait for
+         * it, and miss every class after it, forever; if the class cannot be put into it (on a
+         * <code>StackOverflowError</code>, say) the slot is filled with {@link #PLACEHOLDER}.
+         */
+        boolean add(String className, String location) {
+            if (!seen.add(className)) {
+                return false;
+            }
+            int index = size.getAndIncrement();
+            try {
+                set(index, new Load(className, location));
+            } catch (Throwable t) {
+                try {
+                    set(index, PLACEHOLDER);
+                } catch (Throwable ignored) {
+                    // nothing more can be done
+                }
+                throw t;
+            }
+            return true;
+        }
+
+        private void set(int index, Load load) {
+            int chunk = chunkOf(index);
+            AtomicReferenceArray<Load> loads = chunks.get(chunk);
+            if (loads == null) {
+                chunks.compareAndSet(chunk, null, new AtomicReferenceArray<Load>(FIRST_CHUNK << chunk));
+                loads = chunks.get(chunk);
+            }
+            loads.set(index + FIRST_CHUNK - (FIRST_CHUNK << chunk), load);
+        }
+
+        private static int chunkOf(int index) {
+            // chunk k holds the indexes from FIRST_CHUNK * (2^k - 1) on
+            return 31 - Integer.numberOfLeadingZeros(index + FIRST_CHUNK) - FIRST_CHUNK_BITS;
+        }
+
+        /**
+         * Return the recorded class at the supplied index, or <code>null</code> if its slot has not
+         * been filled in yet.
+         */
+        private Load get(int index) {
+            int chunk = chunkOf(index);
+            AtomicReferenceArray<Load> loads = chunks.get(chunk);
+            return loads == null ? null : loads.get(index + FIRST_CHUNK - (FIRST_CHUNK << chunk));
+        }
+
+        List<String> getClassNames() {
+            List<String> names = new ArrayList<String>();
+            getRecordedSince(0, names, new ArrayList<String>());
+            return names;
+        }
+
+        int getRecordedSince(int from, List<String> names, List<String> codeSources) {
+            int end = size.get();
+            int index = from;
+            for (; index < end; index++) {
+                Load load = get(index);
+                if (load == null) {
+                    break; // the rest is picked up next time
+                }
+                if (load == PLACEHOLDER) {
+                    continue;
+                }
+                names.add(load.className);
+                codeSources.add(load.location);
+            }
+            return index;
+        }
+
+        Map<String, List<String>> getClassNamesByLocation() {
+            Map<String, List<String>> byLocation = new HashMap<String, List<String>>();
+            int end = size.get();
+            for (int index = 0; index < end; index++) {
+                Load load = get(index);
+                if (load == null) {
+                    break;
+                }
+                if (load == PLACEHOLDER || load.location == null) {
+                    continue;
+                }
+                List<String> names = byLocation.get(load.location);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    byLocation.put(load.location, names);
+                }
+                names.add(load.className);
+            }
+            return byLocation;
+        }
+    }
+}
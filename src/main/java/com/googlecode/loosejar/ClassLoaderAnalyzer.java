@@ -21,15 +21,18 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-
-import com.googlecode.loosejar.org.apache.commons.collections15.CollectionUtils;
+import java.util.Map;
+import java.util.Set;
 
 import static com.googlecode.loosejar.Constants.*;
 import static com.googlecode.loosejar.Logger.*;
@@ -37,7 +40,7 @@ import static com.googlecode.loosejar.Logger.*;
 /**
  * The purpose of this class is to:
  * <ul>
- * <li>determine all of the the jars on the classpath</li>
+ * <li>determine all of the the jars (and class directories) on the classpath</li>
  * <li>discover which jars where exercised in respect to the classes loaded by
  * the classloader</li>
  * <li>display the summary of the analysis</li>
@@ -49,11 +52,15 @@ public class ClassLoaderAnalyzer {
     private static final URL JAVA_HOME = javaHome();
     private static final int MANIFEST_PREFIX_LENGTH = "jar:".length();
     private static final int MANIFEST_SUFFIX_LENGTH = "!/META-INF/MANIFEST.MF".length();
+    private static final String DIRECTORY_MANIFEST_SUFFIX = "META-INF/MANIFEST.MF";
 
     private final ClassLoader classLoader;
     private final List<String> classLoaderClasses;
+    private final ManifestResolver resolver;
 
     private final List<JarArchive> jars = new ArrayList<JarArchive>();
+    private final List<File> skippedJars = new ArrayList<File>();
+    private boolean skipped;
 
     /**
      * Create an instance of the class and determine all the jars on the
@@ -63,21 +70,168 @@ public class ClassLoaderAnalyzer {
      * @param classLoaderClasses the classes that this classloader has loaded
      */
     public ClassLoaderAnalyzer(ClassLoader classLoader, List<String> classLoaderClasses) {
+        this(classLoader, classLoaderClasses, new ManifestResolver());
+    }
+
+    ClassLoaderAnalyzer(ClassLoader classLoader, List<String> classLoaderClasses, ManifestResolver resolver) {
+        this(classLoader, classLoaderClasses, resolver, true);
+    }
+
+    private ClassLoaderAnalyzer(ClassLoader classLoader, List<String> classLoaderClasses, ManifestResolver resolver,
+                                boolean scan) {
         this.classLoader = classLoader;
         this.classLoaderClasses = classLoaderClasses;
-        this.jars.addAll(findAllJars());
+        this.resolver = resolver;
+        if (scan) {
+            this.jars.addAll(JarScanner.scan(findAllJars()));
+        }
+    }
+
+    /**
+     * Return the analyzers of all of the classloaders in the supplied map. Each classloader is
+     * analyzed only when the iteration gets to it, and the manifest resources of the classloader
+     * hierarchy are shared between them. When the reachable classes are determined as well, all
+     * the classloaders are analyzed up front instead, since the classes of a classloader may be
+     * reachable from any of its children (see {@link ReferenceGraph#markAllReachable(List)}).
+     *
+     * @param classLoaderToClassListMap the classloaders and the classes they have loaded
+     */
+    public static Iterable<ClassLoaderAnalyzer> analyzeAll(
+            final Map<ClassLoader, List<String>> classLoaderToClassListMap) {
+        JarRegistry.getInstance().prune();
+        final ManifestResolver resolver = new ManifestResolver();
+        if (isReachabilityEnabled()) {
+            List<ClassLoaderAnalyzer> analyzers = new ArrayList<ClassLoaderAnalyzer>();
+            for (Map.Entry<ClassLoader, List<String>> entry : classLoaderToClassListMap.entrySet()) {
+                ClassLoaderAnalyzer analyzer = new ClassLoaderAnalyzer(entry.getKey(), entry.getValue(), resolver);
+                analyzer.analyzeLoadedClasses();
+                analyzers.add(analyzer);
+            }
+            ReferenceGraph.markAllReachable(analyzers);
+            return analyzers;
+        }
+        return new Iterable<ClassLoaderAnalyzer>() {
+            public Iterator<ClassLoaderAnalyzer> iterator() {
+                final Iterator<Map.Entry<ClassLoader, List<String>>> entries =
+                        classLoaderToClassListMap.entrySet().iterator();
+                return new Iterator<ClassLoaderAnalyzer>() {
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    public ClassLoaderAnalyzer next() {
+                        Map.Entry<ClassLoader, List<String>> entry = entries.next();
+                        ClassLoaderAnalyzer analyzer = new ClassLoaderAnalyzer(entry.getKey(), entry.getValue(), resolver);
+                        analyzer.analyzeLoadedClasses();
+                        return analyzer;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
     }
 
-    private static List<String> toList(Enumeration<URL> enumeration) {
-        if (enumeration == null) {
-            return new LinkedList<String>();
+    /**
+     * Analyze all of the classloaders in the supplied map before the deadline (in terms of
+     * {@link System#nanoTime()}) passes. The jars of all the classloaders are found first, and
+     * then scanned smallest first; the classloaders that had no time to be resolved are returned
+     * last, marked by {@link #isSkipped()}, and the jars that had no time to be scanned are
+     * reported by {@link #getSkippedJars()}.
+     * <p>
+     * The deadline is checked before each classloader is resolved, while the jars are scanned and
+     * while the references between the classes are walked; the resolution of a single classloader
+     * is not interrupted.
+     *
+     * @param classLoaderToClassListMap the classloaders and the classes they have loaded
+     * @param deadline                  the time by which the analysis must be finished
+     */
+    static List<ClassLoaderAnalyzer> analyzeAll(Map<ClassLoader, List<String>> classLoaderToClassListMap,
+                                                long deadline) {
+        JarRegistry.getInstance().prune();
+        ManifestResolver resolver = new ManifestResolver();
+
+        // the classloaders which loaded the most classes matter the most
+        List<Map.Entry<ClassLoader, List<String>>> entries =
+                new ArrayList<Map.Entry<ClassLoader, List<String>>>(classLoaderToClassListMap.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<ClassLoader, List<String>>>() {
+            public int compare(Map.Entry<ClassLoader, List<String>> e1, Map.Entry<ClassLoader, List<String>> e2) {
+                return e2.getValue().size() - e1.getValue().size();
+            }
+        });
+
+        List<ClassLoaderAnalyzer> analyzers = new ArrayList<ClassLoaderAnalyzer>();
+        List<List<File>> jarFiles = new ArrayList<List<File>>();
+        Set<File> allJarFiles = new LinkedHashSet<File>();
+        List<ClassLoaderAnalyzer> skippedAnalyzers = new ArrayList<ClassLoaderAnalyzer>();
+        for (Map.Entry<ClassLoader, List<String>> entry : entries) {
+            if (!skippedAnalyzers.isEmpty() || System.nanoTime() - deadline > 0) {
+                ClassLoaderAnalyzer analyzer =
+                        new ClassLoaderAnalyzer(entry.getKey(), entry.getValue(), resolver, false);
+                analyzer.skipped = true;
+                skippedAnalyzers.add(analyzer);
+                continue;
+            }
+            ClassLoaderAnalyzer analyzer = new ClassLoaderAnalyzer(entry.getKey(), entry.getValue(), resolver, false);
+            List<File> files = analyzer.findAllJars();
+            analyzers.add(analyzer);
+            jarFiles.add(files);
+            allJarFiles.addAll(files);
+        }
+
+        if (!skippedAnalyzers.isEmpty()) {
+            log(String.format("The deadline has passed; %d classloader(s) have not been analyzed.",
+                    skippedAnalyzers.size()));
+        }
+
+        Set<File> unfinished = new HashSet<File>();
+        Map<File, JarIndex> indexes = JarScanner.index(allJarFiles, deadline, unfinished);
+        if (!unfinished.isEmpty()) {
+            log(String.format("The deadline has passed; %d of %d jar(s) have not been scanned.",
+                    unfinished.size(), allJarFiles.size()));
         }
 
-        List<String> ret = new LinkedList<String>();
-        while (enumeration.hasMoreElements()) {
-            ret.add(enumeration.nextElement().toString());
+        for (int i = 0; i < analyzers.size(); i++) {
+            ClassLoaderAnalyzer analyzer = analyzers.get(i);
+            for (File file : jarFiles.get(i)) {
+                if (indexes.containsKey(file)) {
+                    analyzer.jars.add(new JarArchive(file, indexes.get(file)));
+                } else if (unfinished.contains(file)) {
+                    analyzer.skippedJars.add(file);
+                }
+            }
+            analyzer.analyzeLoadedClasses();
         }
-        return ret;
+        if (isReachabilityEnabled()) {
+            ReferenceGraph.markAllReachable(analyzers, deadline);
+        }
+        analyzers.addAll(skippedAnalyzers);
+        return analyzers;
+    }
+
+    /**
+     * Return the classloader being analyzed.
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Return an <em>unmodifiable</em> list of the names of the classes loaded by the classloader;
+     * in recording mode they are in the order they were loaded.
+     */
+    public List<String> getClassNames() {
+        return Collections.unmodifiableList(classLoaderClasses);
+    }
+
+    /**
+     * Return true if the names of the classes are in the order they were loaded, which is the
+     * case in recording mode only.
+     */
+    public boolean isInLoadOrder() {
+        return ClassLoadRecorder.getInstance() != null;
     }
 
     /**
@@ -88,8 +242,24 @@ public class ClassLoaderAnalyzer {
         return Collections.unmodifiableList(jars);
     }
 
-    private List<JarArchive> findAllJars() {
-        List<JarArchive> list = new ArrayList<JarArchive>();
+    /**
+     * Return an <em>unmodifiable</em> list of jars on the classloader's classpath which have not
+     * been analyzed, because the analysis ran out of time; the list is normally empty.
+     */
+    public List<File> getSkippedJars() {
+        return Collections.unmodifiableList(skippedJars);
+    }
+
+    /**
+     * Return true if the classloader has not been analyzed at all, because the analysis ran out of
+     * time before its jars could be found; it has no jars then.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    private List<File> findAllJars() {
+        List<File> list = new ArrayList<File>();
 
         List<String> urls;
         try {
@@ -98,11 +268,15 @@ public class ClassLoaderAnalyzer {
             throw new RuntimeException(e);
         }
 
-        if (urls == null || urls.isEmpty()) {
-            return list;
+        if (urls == null) {
+            urls = Collections.emptyList();
         }
 
         for (String rawUrl : urls) {
+            if (rawUrl.startsWith("file:") && rawUrl.endsWith(DIRECTORY_MANIFEST_SUFFIX)) {
+                // a class directory with a manifest; picked up along with the other directories
+                continue;
+            }
             if (!rawUrl.startsWith("jar:")) {
                 continue;
             }
@@ -112,53 +286,175 @@ public class ClassLoaderAnalyzer {
 
             // we don't want to examine JDK jars;
             // ignore own loosejar.jar as well
-            if (uriStr.contains(JAVA_HOME.toString()) || uriStr.contains(PROJECT_NAME)) {
+            if (isExcluded(uriStr)) {
                 continue;
             }
 
-            uriStr = uriStr.replaceAll("\\s", "%20"); // escape spaces
-
-            // this is a workaround for a common bug in some classloader
-            // implementations,
-            // which often return URIs in the following format
-            // [file:c:/location/...]
-            // the point is that 'file:' must be followed by '/' to be a valid
-            // URI.
-            if (uriStr.startsWith("file:") && !uriStr.startsWith("file:/")) {
-                uriStr = "file:/" + uriStr.substring("file:".length());
-            }
-
-            File jar;
-            try {
-                URI uri = new URI(uriStr);
-                jar = new File(uri);
-            } catch (Exception e) {
+            File jar = toFile(uriStr);
+            if (jar == null) {
                 log("IGNORED: [" + uriStr + "]. Bad URI syntax.");
                 continue;
             }
 
-            // just real jars are needed;
+            // just real jars are needed here;
             // directories and incorrectly specified classpath entries are not
             // needed.
-            if (jar.isFile()) {
-                list.add(new JarArchive(jar));
+            if (jar.isFile() || NestedJar.outerFile(jar) != null) {
+                list.add(jar);
+            }
+        }
+
+        for (File directory : findDirectories(urls)) {
+            if (!list.contains(directory)) {
+                list.add(directory);
             }
         }
         return list;
     }
 
+    /**
+     * Find the exploded directories on the classloader's own classpath, such as
+     * <code>WEB-INF/classes</code> or build output directories. They are analyzed the same way
+     * as jars.
+     */
+    private List<File> findDirectories(List<String> manifestUrls) {
+        List<String> entries = new ArrayList<String>();
+        for (String rawUrl : manifestUrls) {
+            if (rawUrl.startsWith("file:") && rawUrl.endsWith(DIRECTORY_MANIFEST_SUFFIX)) {
+                entries.add(rawUrl.substring(0, rawUrl.length() - DIRECTORY_MANIFEST_SUFFIX.length()));
+            }
+        }
+        if (classLoader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                entries.add(url.toString());
+            }
+        } else if (classLoader == ClassLoader.getSystemClassLoader()) {
+            // the application classloader has not been a URLClassLoader since Java 9
+            for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                if (path.length() > 0) {
+                    entries.add(new File(path).toURI().normalize().toString());
+                }
+            }
+        }
+
+        List<File> directories = new ArrayList<File>();
+        for (String uriStr : entries) {
+            if (!uriStr.startsWith("file:") || isExcluded(uriStr)) {
+                continue;
+            }
+            File directory = toFile(uriStr);
+            if (directory != null && directory.isDirectory() && !directories.contains(directory)) {
+                directories.add(directory);
+            }
+        }
+        return directories;
+    }
+
+    private static boolean isExcluded(String uriStr) {
+        return uriStr.contains(JAVA_HOME.toString()) || uriStr.contains(PROJECT_NAME);
+    }
+
+    /**
+     * Convert a <code>file:</code> URI string into a file or return <code>null</code> if the
+     * string cannot be parsed. Nested jar locations, such as
+     * <code>jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/</code> or Spring Boot's
+     * <code>nested:/app.jar/!BOOT-INF/lib/foo.jar</code>, are converted into {@link NestedJar} files.
+     */
+    static File toFile(String uriStr) {
+        uriStr = uriStr.replaceAll("\\s", "%20"); // escape spaces
+
+        if (uriStr.startsWith("jar:")) {
+            uriStr = uriStr.substring("jar:".length());
+        }
+        if (uriStr.startsWith("nested:")) {
+            uriStr = "file:" + uriStr.substring("nested:".length()).replace("/!", "!/");
+        }
+        while (uriStr.endsWith("!/")) {
+            uriStr = uriStr.substring(0, uriStr.length() - "!/".length());
+        }
+
+        // this is a workaround for a common bug in some classloader
+        // implementations,
+        // which often return URIs in the following format
+        // [file:c:/location/...]
+        // the point is that 'file:' must be followed by '/' to be a valid
+        // URI.
+        if (uriStr.startsWith("file:") && !uriStr.startsWith("file:/")) {
+            uriStr = "file:/" + uriStr.substring("file:".length());
+        }
+
+        try {
+            return new File(new URI(uriStr));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * Perform main project analysis determining the relationship between
-     * available jars and the classes loaded in the JVM.
+     * available jars and the classes loaded in the JVM. The reachable classes are determined
+     * from this classloader's own classes only; {@link #analyzeAll} takes the references from the
+     * children of a classloader into account as well.
      */
     public void analyze() {
-        for (JarArchive jar : jars) {
+        analyzeLoadedClasses();
+        if (isReachabilityEnabled()) {
+            ReferenceGraph.markReachable(jars);
+        }
+    }
+
+    private static boolean isReachabilityEnabled() {
+        return Boolean.getBoolean("loosejar.reachability");
+    }
+
+    private void analyzeLoadedClasses() {
+        ClassLoadRecorder recorder = ClassLoadRecorder.getInstance();
+        if (recorder != null) {
+            analyzeRecorded(recorder);
+        } else {
             // find which classes loaded by this classloader came from a given jar.
-            Collection<String> usedClasses = CollectionUtils.intersection(classLoaderClasses, jar.getAllClassNames());
-            jar.setNamesOfLoadedClasses(new HashSet<String>(usedClasses));
+            BitSet loadedClasses = toClassIds(classLoaderClasses);
+            for (JarArchive jar : jars) {
+                jar.setLoadedClasses(loadedClasses);
+            }
         }
     }
 
+    /**
+     * In recording mode the loaded classes are already grouped by the location they were loaded
+     * from, so each jar needs to look only at its own classes.
+     */
+    private void analyzeRecorded(ClassLoadRecorder recorder) {
+        Map<File, List<String>> byJar = new HashMap<File, List<String>>();
+        for (Map.Entry<String, List<String>> entry : recorder.getClassNamesByLocation(classLoader).entrySet()) {
+            File location = toFile(entry.getKey());
+            if (location != null) {
+                byJar.put(location, entry.getValue());
+            }
+        }
+
+        for (JarArchive jar : jars) {
+            List<String> recorded = byJar.get(jar.getJar());
+            jar.setLoadedClasses(toClassIds(recorded == null ? Collections.<String>emptyList() : recorded));
+        }
+    }
+
+    /**
+     * Convert class names into a set of {@link ClassNameDictionary} identifiers. Names that are not
+     * present in any jar have no identifier and are left out.
+     */
+    private static BitSet toClassIds(List<String> classNames) {
+        ClassNameDictionary dictionary = ClassNameDictionary.getInstance();
+        BitSet ids = new BitSet(dictionary.size());
+        for (String className : classNames) {
+            int id = dictionary.lookup(className);
+            if (id >= 0) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
     private static URL javaHome() {
         // return normalized URL
         File jHome = new File(System.getProperty("java.home"));
@@ -197,38 +493,16 @@ public class ClassLoaderAnalyzer {
             buf.append("Jar: " + jar.getJar() + '\n');
             buf.append("    ");
             buf.append(String.format("Utilization: %.2f%% - loaded %d of %d classes.\n\n", jar.getUsagePercentage(),
-                    jar.getNamesOfLoadedClasses().size(), jar.getAllClassNames().size()));
+                    jar.getLoadedClassCount(), jar.getClassCount()));
         }
         return buf.toString();
     }
 
-    private List<String> findManifestResources() throws IOException {
-        // This will return a transitive closure of all jars on the
-        // classpath in the form of
+    List<String> findManifestResources() throws IOException {
+        // This will return the jars on the classpath in the form of
         // jar:file:/foo/bar/baz.jar!/META-INF/MANIFEST.MF
-        // Note that this method will return *all* resources, that is resources
-        // available *directly* to this classloader as well as its *parent* classloaders
-        // which is not exactly what we want. What we want to return are the resources
-        // that are available only *directly* to this classloader (i.e., no parents!)
-        // Thus we must subtract those below
-        List<String> resources = toList(classLoader.getResources("META-INF/MANIFEST.MF"));
-
-        ClassLoader parent = classLoader.getParent();
-        Enumeration<URL> parentResources;
-        if (parent != null) {
-            parentResources = parent.getResources("META-INF/MANIFEST.MF");
-        } else {
-            parentResources = ClassLoader.getSystemResources("META-INF/MANIFEST.MF");
-        }
-
-        //parent resources must be removed, note that it has to be done in List
-        //context (i.e., not Set context) to preserve cardinality.
-        while (parentResources.hasMoreElements()) {
-            String url = parentResources.nextElement().toString();
-            resources.remove(url);
-        }
-
-        return resources;
+        // that are available *directly* to this classloader (i.e., no parents!)
+        return resolver.getOwnResources(classLoader);
     }
 
 }
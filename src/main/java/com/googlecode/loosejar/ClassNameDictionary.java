@@ -0,0 +1,332 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A process-wide dictionary which assigns every class name a dense <code>int</code> identifier.
+ * Each name is interned exactly once, so jars can refer to their classes by identifiers and the
+ * classes loaded by a classloader can be represented as a {@link java.util.BitSet}.
+ * <p>
+ * Class names share long package prefixes, so the dictionary does not keep them as strings.
+ * Every package is stored once in a package table, and every class is stored as the index of its
+ * package plus its simple name encoded into a shared byte arena (one byte per ASCII character).
+ * Both tables are open-addressing hash tables of <code>int</code>s, so no boxing is involved, and
+ * lookups compare characters in place without creating any strings. Identifiers are never reused.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ClassNameDictionary {
+    private static final ClassNameDictionary INSTANCE = new ClassNameDictionary();
+
+    // the package table
+    private String[] packages;
+    private int[] packageTable;
+    private int packageCount;
+
+    // per class: its package, its hash and the start of its simple name in the arena
+    private int[] packageOf;
+    private int[] hashes;
+    private int[] nameStart;
+    private byte[] arena;
+    private int[] table;
+    private int size;
+
+    private ClassNameDictionary() {
+        clear();
+    }
+
+    static ClassNameDictionary getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forget all the names, releasing their memory. The identifiers handed out so far become
+     * meaningless, so this is only safe once nothing refers to them any more.
+     */
+    synchronized void clear() {
+        packages = new String[256];
+        packageTable = newTable(512);
+        packageCount = 0;
+        packageOf = new int[1024];
+        hashes = new int[1024];
+        nameStart = new int[1025];
+        arena = new byte[16 * 1024];
+        table = newTable(2048);
+        size = 0;
+    }
+
+    /**
+     * Return the identifier of the supplied class name assigning a new one if necessary.
+     */
+    synchronized int intern(String name) {
+        int dot = name.lastIndexOf('.');
+        int pkg = internPackage(name, dot);
+        int hash = hash(pkg, name, dot + 1);
+        int slot = slot(pkg, hash, name, dot + 1);
+        if (table[slot] >= 0) {
+            return table[slot];
+        }
+
+        if (size == packageOf.length) {
+            packageOf = Arrays.copyOf(packageOf, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            nameStart = Arrays.copyOf(nameStart, size * 2 + 1);
+        }
+        int id = size++;
+        packageOf[id] = pkg;
+        hashes[id] = hash;
+        nameStart[id + 1] = encode(name, dot + 1, nameStart[id]);
+        table[slot] = id;
+
+        // keep the load factor under 1/2
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Intern all of the supplied names returning their identifiers in ascending order.
+     */
+    synchronized int[] internAll(Collection<String> classNames) {
+        int[] ids = internEach(classNames);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Intern all of the supplied names returning their identifiers in the order of the names.
+     */
+    synchronized int[] internEach(Collection<String> classNames) {
+        int[] ids = new int[classNames.size()];
+        int i = 0;
+        for (String name : classNames) {
+            ids[i++] = intern(name);
+        }
+        return ids;
+    }
+
+    /**
+     * Return the identifier of the supplied class name or <code>-1</code> if it has never been
+     * interned.
+     */
+    synchronized int lookup(String name) {
+        int dot = name.lastIndexOf('.');
+        int pkg = packageTable[packageSlot(name, dot)];
+        if (pkg < 0) {
+            return -1;
+        }
+        return table[slot(pkg, hash(pkg, name, dot + 1), name, dot + 1)];
+    }
+
+    /**
+     * Return the class name of the supplied identifier.
+     */
+    synchronized String name(int id) {
+        StringBuilder buf = new StringBuilder(64);
+        appendName(id, buf);
+        return buf.toString();
+    }
+
+    /**
+     * Append the class name of the supplied identifier to the supplied buffer.
+     */
+    synchronized void appendName(int id, StringBuilder buf) {
+        String pkg = packages[packageOf[id]];
+        if (pkg.length() > 0) {
+            buf.append(pkg).append('.');
+        }
+        int end = nameStart[id + 1];
+        for (int i = nameStart[id]; i < end; ) {
+            int b = arena[i++] & 0xFF;
+            if (b < 0x80) {
+                buf.append((char) b);
+            } else if (b < 0xE0) {
+                buf.append((char) (((b & 0x1F) << 6) | (arena[i++] & 0x3F)));
+            } else {
+                buf.append((char) (((b & 0x0F) << 12) | ((arena[i++] & 0x3F) << 6) | (arena[i++] & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Return the package identifier of the class with the supplied identifier.
+     */
+    synchronized int packageOf(int id) {
+        return packageOf[id];
+    }
+
+    /**
+     * Return the name of the package with the supplied identifier; the default package is an
+     * empty string.
+     */
+    synchronized String packageName(int packageId) {
+        return packages[packageId];
+    }
+
+    /**
+     * Return the number of interned class names; all identifiers are below this value.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private int internPackage(String name, int dot) {
+        int slot = packageSlot(name, dot);
+        if (packageTable[slot] >= 0) {
+            return packageTable[slot];
+        }
+
+        if (packageCount == packages.length) {
+            packages = Arrays.copyOf(packages, packageCount * 2);
+        }
+        int pkg = packageCount++;
+        packages[pkg] = dot < 0 ? "" : name.substring(0, dot);
+        packageTable[slot] = pkg;
+
+        if (packageCount * 2 > packageTable.length) {
+            packageTable = newTable(packageTable.length * 2);
+            int mask = packageTable.length - 1;
+            for (int p = 0; p < packageCount; p++) {
+                int s = mix(packages[p].hashCode()) & mask;
+                while (packageTable[s] >= 0) {
+                    s = (s + 1) & mask;
+                }
+                packageTable[s] = p;
+            }
+        }
+        return pkg;
+    }
+
+    private int packageSlot(String name, int dot) {
+        int length = Math.max(dot, 0);
+        // same as the hash code of the package name, without creating it
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+
+        int mask = packageTable.length - 1;
+        int slot = mix(hash) & mask;
+        while (packageTable[slot] >= 0) {
+            String pkg = packages[packageTable[slot]];
+            if (pkg.length() == length && pkg.regionMatches(0, name, 0, length)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int slot(int pkg, int hash, String name, int start) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] >= 0) {
+            int id = table[slot];
+            if (hashes[id] == hash && packageOf[id] == pkg && simpleNameEquals(id, name, start)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean simpleNameEquals(int id, String name, int start) {
+        int i = nameStart[id];
+        int end = nameStart[id + 1];
+        for (int c = start; c < name.length(); c++) {
+            char ch = name.charAt(c);
+            if (ch < 0x80) {
+                if (i >= end || arena[i++] != ch) {
+                    return false;
+                }
+            } else {
+                // rare enough to be compared the slow way
+                byte[] encoded = new byte[3];
+                int length = encode(ch, encoded, 0);
+                for (int b = 0; b < length; b++) {
+                    if (i >= end || arena[i++] != encoded[b]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return i == end;
+    }
+
+    private int encode(String name, int start, int position) {
+        int needed = position + (name.length() - start) * 3;
+        if (needed > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(needed, arena.length * 2));
+        }
+        for (int c = start; c < name.length(); c++) {
+            position = encode(name.charAt(c), arena, position);
+        }
+        return position;
+    }
+
+    private static int encode(char ch, byte[] buf, int position) {
+        // every char is encoded on its own, so surrogate pairs take six bytes; class names
+        // are hardly ever outside of ASCII anyway
+        if (ch < 0x80) {
+            buf[position++] = (byte) ch;
+        } else if (ch < 0x800) {
+            buf[position++] = (byte) (0xC0 | (ch >> 6));
+            buf[position++] = (byte) (0x80 | (ch & 0x3F));
+        } else {
+            buf[position++] = (byte) (0xE0 | (ch >> 12));
+            buf[position++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+            buf[position++] = (byte) (0x80 | (ch & 0x3F));
+        }
+        return position;
+    }
+
+    private static int hash(int pkg, String name, int start) {
+        int hash = pkg;
+        for (int i = start; i < name.length(); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return hash;
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static int mix(int hash) {
+        // class names share long prefixes; spread the bits before masking
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A minimal class file parser which finds the classes a class refers to statically, without
+ * defining it. Only the constant pool and the descriptors of the fields and methods are looked at:
+ * the classes named by <code>CONSTANT_Class</code> entries (the superclass, the interfaces and
+ * every class whose members are used or which is instantiated, cast to or caught) and the classes
+ * appearing in field, method and method type descriptors. Classes referred to only by
+ * annotations, generic signatures or reflection are not found.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ClassReferences {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    private ClassReferences() {
+    }
+
+    /**
+     * Add the names of the classes the supplied class file refers to, in the form of
+     * <code>name.of.package.SomeClass</code>, to the supplied collection. The class itself is
+     * among them, and so are the classes of the JDK.
+     *
+     * @throws IOException if the data is not a well formed class file
+     */
+    static void read(ByteBuffer classFile, Collection<String> references) throws IOException {
+        try {
+            parse(classFile.duplicate(), references);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated class file");
+        }
+    }
+
+    private static void parse(ByteBuffer in, Collection<String> references) throws IOException {
+        int pos = in.position();
+        if (in.getInt(pos) != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        int count = in.getShort(pos + 8) & 0xFFFF;
+        pos += 10;
+
+        // the positions of the UTF-8 entries, and the indexes of the entries naming classes
+        int[] utf8 = new int[count];
+        int[] classNames = new int[count];
+        int[] descriptors = new int[count];
+        int classCount = 0;
+        int descriptorCount = 0;
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.get(pos) & 0xFF;
+            switch (tag) {
+                case UTF8:
+                    utf8[i] = pos;
+                    pos += 3 + (in.getShort(pos + 1) & 0xFFFF);
+                    break;
+                case CLASS:
+                    classNames[classCount++] = in.getShort(pos + 1) & 0xFFFF;
+                    pos += 3;
+                    break;
+                case NAME_AND_TYPE:
+                    descriptors[descriptorCount++] = in.getShort(pos + 3) & 0xFFFF;
+                    pos += 5;
+                    break;
+                case METHOD_TYPE:
+                    descriptors[descriptorCount++] = in.getShort(pos + 1) & 0xFFFF;
+                    pos += 3;
+                    break;
+                case STRING:
+                case MODULE:
+                case PACKAGE:
+                    pos += 3;
+                    break;
+                case METHOD_HANDLE:
+                    pos += 4;
+                    break;
+                case INTEGER:
+                case FLOAT:
+                case FIELD_REF:
+                case METHOD_REF:
+                case INTERFACE_METHOD_REF:
+                case DYNAMIC:
+                case INVOKE_DYNAMIC:
+                    pos += 5;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    // eight byte constants take up two entries
+                    pos += 9;
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        // access flags, this class and the superclass, then the interfaces
+        pos += 6;
+        pos += 2 + 2 * (in.getShort(pos) & 0xFFFF);
+
+        // the descriptors of the fields and then of the methods
+        for (int members = 0; members < 2; members++) {
+            int memberCount = in.getShort(pos) & 0xFFFF;
+            pos += 2;
+            for (int m = 0; m < memberCount; m++) {
+                if (descriptorCount == descriptors.length) {
+                    descriptors = Arrays.copyOf(descriptors, descriptorCount * 2 + 1);
+                }
+                descriptors[descriptorCount++] = in.getShort(pos + 4) & 0xFFFF;
+                int attributes = in.getShort(pos + 6) & 0xFFFF;
+                pos += 8;
+                for (int a = 0; a < attributes; a++) {
+                    pos += 6 + in.getInt(pos + 2);
+                }
+            }
+        }
+
+        for (int i = 0; i < classCount; i++) {
+            String name = utf8(in, utf8, classNames[i]);
+            if (name.startsWith("[")) {
+                addDescriptor(name, references);
+            } else {
+                references.add(name.replace('/', '.'));
+            }
+        }
+        for (int i = 0; i < descriptorCount; i++) {
+            addDescriptor(utf8(in, utf8, descriptors[i]), references);
+        }
+    }
+
+    private static void addDescriptor(String descriptor, Collection<String> references) {
+        for (int start = descriptor.indexOf('L'); start >= 0; start = descriptor.indexOf('L', start)) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return;
+            }
+            references.add(descriptor.substring(start + 1, end).replace('/', '.'));
+            start = end;
+        }
+    }
+
+    /**
+     * Decode the modified UTF-8 constant pool entry with the supplied index.
+     */
+    private static String utf8(ByteBuffer in, int[] utf8, int index) throws IOException {
+        if (index <= 0 || index >= utf8.length || utf8[index] == 0) {
+            throw new IOException("invalid constant pool index " + index);
+        }
+        int pos = utf8[index];
+        int length = in.getShort(pos + 1) & 0xFFFF;
+        pos += 3;
+
+        char[] chars = new char[length];
+        int count = 0;
+        for (int end = pos + length; pos < end; ) {
+            int b = in.get(pos++) & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (in.get(pos++) & 0x3F));
+            } else {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((in.get(pos++) & 0x3F) << 6) | (in.get(pos++) & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
@@ -16,14 +16,23 @@
 
 package com.googlecode.loosejar;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.instrument.Instrumentation;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.googlecode.loosejar.output.BinarySummarizer;
+import com.googlecode.loosejar.output.ClassListSummarizer;
 import com.googlecode.loosejar.output.Summarizer;
 import com.googlecode.loosejar.output.SummarizerFactory;
 
@@ -38,34 +47,76 @@ import static com.googlecode.loosejar.Logger.*;
  * @author Kyrill Alyoshin
  */
 public class JVMAnalyzer implements Runnable {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
     private final Instrumentation instrumentation;
 
+    // the time (in terms of System.nanoTime()) by which the results must be written, if any
+    private boolean bounded;
+    private long deadline;
+
     JVMAnalyzer(Instrumentation instr) {
         this.instrumentation = instr;
     }
 
     /**
-     * Simply invokes {@link #displayResults()}.
+     * Invokes {@link #displayResults()} within the time given by the
+     * <code>loosejar.shutdownTimeout</code> system property (in seconds), if it is set. Once the
+     * time is up, whatever has been analyzed so far is written out and marked as partial, so the
+     * report is not lost to a JVM which is killed when it takes too long to shut down.
+     * <p>
+     * Only finding and scanning the jars and walking the references between their classes are
+     * bounded. Listing the loaded classes, resolving a single
+     * classloader and writing the report out are not, so the timeout should leave some room for
+     * them within the time the JVM has to shut down.
      */
     public void run() {
+        long timeout = shutdownTimeout();
+        if (timeout > 0) {
+            bounded = true;
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        }
         displayResults();
     }
 
+    static long shutdownTimeout() {
+        String timeout = System.getProperty("loosejar.shutdownTimeout");
+        if (timeout == null || timeout.trim().equals("")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(timeout.trim()));
+        } catch (NumberFormatException e) {
+            log("IGNORED: shutdown timeout [" + timeout + "] is not a number.");
+            return 0;
+        }
+    }
+
     /**
-     * Performs <em>all</em> application logic returning the results of the
-     * analysis.
+     * Performs <em>all</em> application logic writing the results of the
+     * analysis as they are produced.
      */
     void displayResults() {
         String outputFile = System.getProperty("loosejar.outputFile");
-        String results = getResults();
         if (outputFile == null || outputFile.equals("")) {
-            writeToConsole(results);
+            writeToConsole();
         } else {
-            writeToFile(outputFile, results);
+            writeToFile(outputFile);
         }
     }
 
-    private Map<ClassLoader, List<String>> createClassLoaderMap() {
+    Map<ClassLoader, List<String>> createClassLoaderMap() {
+        ClassLoadRecorder recorder = ClassLoadRecorder.getInstance();
+        if (recorder != null) {
+            // the classes have already been grouped as they were loaded
+            Map<ClassLoader, List<String>> map = recorder.snapshot();
+            log(String.format("Found %d various ClassLoader(s) recorded inside the JVM.", map.size()));
+            log(String.format(Locale.ROOT, "Recorded %d class loads in %.1f ms of recording overhead; "
+                            + "%d generated classes were not recorded.", recorder.getRecordedCount(),
+                    recorder.getOverhead() / 1e6, recorder.getDroppedCount()));
+            return map;
+        }
+
         Map<ClassLoader, List<String>> map = new HashMap<ClassLoader, List<String>>();
 
         Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
@@ -97,21 +148,67 @@ public class JVMAnalyzer implements Runnable {
         return summarizer.summarize(createClassLoaderMap());
     }
 
-    private void writeToConsole(String results) {
-        System.out.println(results);
+    private void writeResults(Summarizer summarizer, Writer out) throws IOException {
+        if (bounded) {
+            summarizer.summarize(ClassLoaderAnalyzer.analyzeAll(createClassLoaderMap(), deadline), out);
+        } else {
+            summarizer.summarize(createClassLoaderMap(), out);
+        }
+        if (!(summarizer instanceof ClassListSummarizer)) {
+            // CDS would take an empty line for a class it cannot find
+            out.write(LINE_SEPARATOR);
+        }
+        out.flush();
+    }
+
+    private void writeBinaryResults(BinarySummarizer summarizer, OutputStream out) throws IOException {
+        if (bounded) {
+            summarizer.summarize(ClassLoaderAnalyzer.analyzeAll(createClassLoaderMap(), deadline), out);
+        } else {
+            summarizer.summarize(createClassLoaderMap(), out);
+        }
+    }
+
+    private void writeToConsole() {
+        // System.out must not be closed
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            writeResults(new SummarizerFactory().getSummarizer(), out);
+        } catch (IOException ioe) {
+            log("Exception writing results to the console: " + ioe);
+        }
     }
 
-    private void writeToFile(String outputFile, String results) {
+    private void writeToFile(String outputFile) {
+        OutputStream stream;
         try {
-            PrintStream fileStream = new PrintStream(outputFile);
+            stream = new BufferedOutputStream(new FileOutputStream(outputFile));
+        } catch (IOException ioe) {
+            log(String.format("Exception creating outputFile - %s, writing to default output console", outputFile));
+            writeToConsole();
+            return;
+        }
+
+        Summarizer summarizer = new SummarizerFactory().getSummarizer();
+        try {
+            if (summarizer instanceof BinarySummarizer) {
+                // a file is the one place binary output can go as it is
+                try {
+                    writeBinaryResults((BinarySummarizer) summarizer, stream);
+                } finally {
+                    stream.close();
+                }
+                return;
+            }
+
+            Writer out = new OutputStreamWriter(stream);
             try {
-                fileStream.println(results);
+                writeResults(summarizer, out);
             } finally {
-                fileStream.close();
+                out.close();
             }
         } catch (IOException ioe) {
-            log(String.format("Exception creating outputFile - %s, writing to default output console", outputFile));
-            writeToConsole(results);
+            log(String.format("Exception writing results to outputFile - %s: %s", outputFile, ioe));
         }
     }
 }
@@ -17,46 +17,47 @@
 package com.googlecode.loosejar;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.List;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 /**
  * This class represents a jar file, all classes that it contains, and a subset of those that have
  * been loaded into the JVM.
+ * <p>
+ * Class names are kept as sorted identifiers from the {@link ClassNameDictionary}; the sets of
+ * names returned by this class are views over those identifiers.
  *
  * @author Kyrill Alyoshin
  */
 public class JarArchive {
+    private static final int[] NONE = new int[0];
+
     private final File jar;
-    private final Set<String> allClassNames = new HashSet<String>();
+    private final JarIndex index;
+    private final int[] classIds;
 
-    private Set<String> namesOfLoadedClasses;
+    private int[] loadedClassIds = NONE;
+    private long loadedSize;
+    private long loadedCompressedSize;
+    private int reachableClassCount = -1;
 
     /**
-     * Create an instance and convert internal jar class entries into valid class names.
+     * Create an instance over the supplied jar index; the index may be shared with other
+     * classloaders, which may know the jar by other paths, but the path and the loaded classes are
+     * specific to this instance.
      */
-    JarArchive(File jar) {
+    JarArchive(File jar, JarIndex index) {
         this.jar = jar;
-
-        for (String entry : getEntries(jar)) {
-            if (!entry.endsWith(".class")) {
-                continue;
-            }
-
-            //convert 'name/of/package/someclass.class' into 'name.of.package.someclass'
-            allClassNames.add(entry.substring(0, entry.length() - ".class".length()).replace('/', '.'));
-        }
+        this.index = index;
+        this.classIds = index.getClassIds();
     }
 
     /**
-     * Return a file representing this jar.
+     * Return a file representing this jar, as the classloader refers to it.
      */
     public File getJar() {
         return jar;
@@ -66,49 +67,265 @@ public class JarArchive {
      * Return an <em>unmodifiable</em> set of class names present in this jar file.
      */
     public Set<String> getAllClassNames() {
-        return Collections.unmodifiableSet(allClassNames);
+        return new ClassNameSet(classIds);
     }
 
     /**
      * Return names of classes loaded from this jar.
      */
     public Set<String> getNamesOfLoadedClasses() {
-        return Collections.unmodifiableSet(namesOfLoadedClasses);
+        return new ClassNameSet(loadedClassIds);
+    }
+
+    /**
+     * Return the number of classes present in this jar file.
+     */
+    public int getClassCount() {
+        return classIds.length;
+    }
+
+    /**
+     * Return the number of classes loaded from this jar.
+     */
+    public int getLoadedClassCount() {
+        return loadedClassIds.length;
     }
 
     /**
-     * Set names of classes loaded from this jar.
+     * Return the identifier of the loaded class at the supplied position, from <code>0</code> to
+     * {@link #getLoadedClassCount()}; a class has the same identifier in every jar and classloader
+     * for the lifetime of the JVM, so identifiers can stand in for class names without creating them.
      */
-    void setNamesOfLoadedClasses(Set<String> namesOfLoadedClasses) {
-        this.namesOfLoadedClasses = namesOfLoadedClasses;
+    public int getLoadedClassId(int position) {
+        return loadedClassIds[position];
+    }
+
+    /**
+     * Append the name of the loaded class at the supplied position, from <code>0</code> to
+     * {@link #getLoadedClassCount()}, to the supplied buffer.
+     */
+    public void appendLoadedClassName(int position, StringBuilder buf) {
+        ClassNameDictionary.getInstance().appendName(loadedClassIds[position], buf);
+    }
+
+    /**
+     * Return the name of the class with the supplied identifier (see {@link #getLoadedClassId(int)}).
+     */
+    public static String className(int id) {
+        return ClassNameDictionary.getInstance().name(id);
+    }
+
+    /**
+     * Return the sorted {@link ClassNameDictionary} identifiers of all the classes in this jar; the
+     * array must not be modified.
+     */
+    int[] getClassIds() {
+        return classIds;
+    }
+
+    /**
+     * Return the sorted {@link ClassNameDictionary} identifiers of the classes loaded from this
+     * jar; the array must not be modified.
+     */
+    int[] getLoadedClassIds() {
+        return loadedClassIds;
+    }
+
+    /**
+     * Return the number of classes of this jar which have not been loaded but are statically
+     * referred to, directly or not, by a loaded class, or <code>-1</code> if the references have
+     * not been analyzed (see {@link ReferenceGraph}).
+     */
+    public int getReachableClassCount() {
+        return reachableClassCount;
+    }
+
+    /**
+     * Return the number of classes of this jar which are neither loaded nor reachable from a loaded
+     * class, or <code>-1</code> if the references have not been analyzed.
+     */
+    public int getUnreachableClassCount() {
+        return reachableClassCount < 0 ? -1 : classIds.length - loadedClassIds.length - reachableClassCount;
+    }
+
+    /**
+     * Determine which classes of this jar can be reached from the loaded classes; the supplied
+     * set holds the {@link ClassNameDictionary} identifiers of the reachable classes, whether they
+     * have been loaded or not.
+     */
+    void setReachableClasses(BitSet reachableClasses) {
+        int count = 0;
+        for (int id : classIds) {
+            if (reachableClasses.get(id) && Arrays.binarySearch(loadedClassIds, id) < 0) {
+                count++;
+            }
+        }
+        this.reachableClassCount = count;
+    }
+
+    /**
+     * Determine which classes of this jar have been loaded; the supplied set holds the
+     * {@link ClassNameDictionary} identifiers of the classes loaded by the classloader.
+     */
+    void setLoadedClasses(BitSet loadedClasses) {
+        int[] loaded = new int[classIds.length];
+        int count = 0;
+        long size = 0;
+        long compressedSize = 0;
+        for (int i = 0; i < classIds.length; i++) {
+            if (loadedClasses.get(classIds[i])) {
+                loaded[count++] = classIds[i];
+                size += index.getSize(i);
+                compressedSize += index.getCompressedSize(i);
+            }
+        }
+        this.loadedClassIds = count == 0 ? NONE : Arrays.copyOf(loaded, count);
+        this.loadedSize = size;
+        this.loadedCompressedSize = compressedSize;
+    }
+
+    /**
+     * Mark the supplied classes of this jar as loaded returning those that had not been marked
+     * before; the supplied {@link ClassNameDictionary} identifiers must be sorted, and those which do
+     * not belong to this jar are ignored.
+     */
+    int[] addLoadedClasses(int[] sortedIds) {
+        int[] added = new int[sortedIds.length];
+        int count = 0;
+        for (int id : sortedIds) {
+            if (count > 0 && added[count - 1] == id) {
+                continue;
+            }
+            int position = Arrays.binarySearch(classIds, id);
+            if (position >= 0 && Arrays.binarySearch(loadedClassIds, id) < 0) {
+                added[count++] = id;
+                loadedSize += index.getSize(position);
+                loadedCompressedSize += index.getCompressedSize(position);
+            }
+        }
+        if (count == 0) {
+            return NONE;
+        }
+        added = Arrays.copyOf(added, count);
+
+        // merge the two sorted arrays
+        int[] merged = new int[loadedClassIds.length + count];
+        int i = 0, j = 0, k = 0;
+        while (i < loadedClassIds.length || j < count) {
+            if (j == count || (i < loadedClassIds.length && loadedClassIds[i] < added[j])) {
+                merged[k++] = loadedClassIds[i++];
+            } else {
+                merged[k++] = added[j++];
+            }
+        }
+        this.loadedClassIds = merged;
+        return added;
     }
 
     /**
      * Return the percentage of classes loaded into the JVM in comparison to all available in this jar file.
      */
     public double getUsagePercentage() {
-        if (allClassNames.isEmpty()) {
+        if (classIds.length == 0) {
             return 0.0;
         }
 
-        return ((double) namesOfLoadedClasses.size() / (double) allClassNames.size()) * 100;
+        return ((double) loadedClassIds.length / (double) classIds.length) * 100;
     }
 
-    private List<String> getEntries(File archive) {
-        try {
-            JarFile jarFile = new JarFile(archive);
-            try {
-                Enumeration<JarEntry> entries = jarFile.entries();
-                List<String> names = new ArrayList<String>();
-                while (entries.hasMoreElements()) {
-                    names.add(entries.nextElement().getName());
-                }
-                return names;
-            } finally {
-                jarFile.close();
+    /**
+     * Return the percentage of the class bytes loaded into the JVM in comparison to the bytes of all
+     * the classes in this jar file, so that large classes weigh more than small ones.
+     */
+    public double getSizeUsagePercentage() {
+        if (index.getTotalSize() == 0) {
+            return 0.0;
+        }
+
+        return ((double) loadedSize / (double) index.getTotalSize()) * 100;
+    }
+
+    /**
+     * Return the uncompressed size, in bytes, of all the class files in this jar.
+     */
+    public long getClassesSize() {
+        return index.getTotalSize();
+    }
+
+    /**
+     * Return the uncompressed size, in bytes, of the class files loaded from this jar.
+     */
+    public long getLoadedClassesSize() {
+        return loadedSize;
+    }
+
+    /**
+     * Return the uncompressed size, in bytes, of the class files in this jar which have not been
+     * loaded.
+     */
+    public long getUnusedClassesSize() {
+        return index.getTotalSize() - loadedSize;
+    }
+
+    /**
+     * Return the size, in bytes, of all the class files as stored (compressed) in this jar.
+     */
+    public long getCompressedClassesSize() {
+        return index.getTotalCompressedSize();
+    }
+
+    /**
+     * Return the size, in bytes, of the class files which have not been loaded as stored
+     * (compressed) in this jar, i.e. how much smaller the jar would be without them.
+     */
+    public long getReclaimableSize() {
+        return index.getTotalCompressedSize() - loadedCompressedSize;
+    }
+
+    /**
+     * An unmodifiable set of class names backed by sorted dictionary identifiers.
+     */
+    private static final class ClassNameSet extends AbstractSet<String> {
+        private final int[] ids;
+
+        ClassNameSet(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) {
+                return false;
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read entries from a jar archive [" + archive + "]: " + e);
+            int id = ClassNameDictionary.getInstance().lookup((String) o);
+            return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next;
+
+                public boolean hasNext() {
+                    return next < ids.length;
+                }
+
+                public String next() {
+                    if (next == ids.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return ClassNameDictionary.getInstance().name(ids[next++]);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
         }
     }
 
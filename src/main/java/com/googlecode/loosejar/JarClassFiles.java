@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The class files of a jar, read straight from the mapped archive. Only the central directory is
+ * read up front; a class file is inflated, if it is compressed at all, when it is asked for.
+ * <p>
+ * The versions of a class in a multi-release jar (<code>META-INF/versions/N/...</code>) are
+ * listed apart from the class names, under the names of the entries.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarClassFiles {
+    private static final String VERSIONS_PREFIX = "META-INF.versions.";
+
+    private final File jar;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Set<String> classNames = new HashSet<String>();
+    private final Map<String, List<String>> versions = new HashMap<String, List<String>>();
+
+    /**
+     * Map the supplied jar and list its class files.
+     */
+    JarClassFiles(File jar) throws IOException {
+        this.jar = jar;
+        CentralDirectoryReader reader = CentralDirectoryReader.open(jar);
+        while (reader.next()) {
+            if (reader.isClass() && (reader.method() == ZipEntry.STORED || reader.method() == ZipEntry.DEFLATED)) {
+                String name = reader.className();
+                entries.put(name, new Entry(reader.data(), reader.method(), reader.size()));
+                String className = baseClassName(name);
+                if (className.equals(name)) {
+                    classNames.add(name);
+                } else {
+                    List<String> names = versions.get(className);
+                    if (names == null) {
+                        names = new ArrayList<String>();
+                        versions.put(className, names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    File getJar() {
+        return jar;
+    }
+
+    /**
+     * Return the name of the class a class file entry of the supplied name, in the form of
+     * <code>name.of.package.SomeClass</code>, holds: the versioned entries of a multi-release jar
+     * hold the class of the same name without the <code>META-INF.versions.N.</code> prefix.
+     */
+    static String baseClassName(String name) {
+        if (!name.startsWith(VERSIONS_PREFIX)) {
+            return name;
+        }
+        int end = name.indexOf('.', VERSIONS_PREFIX.length());
+        return end < 0 ? name : name.substring(end + 1);
+    }
+
+    /**
+     * Return the names of the classes of the jar, in the form of <code>name.of.package.SomeClass</code>;
+     * the versioned entries of a multi-release jar are not among them.
+     */
+    Set<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Return the names of the versioned entries of the supplied class in a multi-release jar, each
+     * of which can be {@link #read}; the list is empty for most classes.
+     */
+    List<String> getVersions(String className) {
+        List<String> names = versions.get(className);
+        return names == null ? Collections.<String>emptyList() : names;
+    }
+
+    /**
+     * Return the class file of the supplied class, or of the supplied versioned entry, or
+     * <code>null</code> if the jar does not contain it.
+     */
+    ByteBuffer read(String className) throws IOException {
+        Entry entry = entries.get(className);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.method == ZipEntry.STORED) {
+            return entry.data.duplicate();
+        }
+
+        byte[] compressed = new byte[entry.data.remaining() + 1];
+        entry.data.duplicate().get(compressed, 0, compressed.length - 1);
+        byte[] classFile = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            // the extra byte at the end is what the inflater needs to finish a raw stream
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < classFile.length && !inflater.finished()) {
+                int n = inflater.inflate(classFile, length, classFile.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != classFile.length) {
+                throw new ZipException("class file of [" + className + "] is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("class file of [" + className + "] is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(classFile);
+    }
+
+    private static final class Entry {
+        private final ByteBuffer data;
+        private final int method;
+        private final long size;
+
+        Entry(ByteBuffer data, int method, long size) {
+            this.data = data;
+            this.method = method;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * This class represents the immutable index of a jar file, or of a class directory which is treated
+ * the same way: the sorted {@link ClassNameDictionary} identifiers of all the classes it contains
+ * along with the uncompressed and compressed sizes of their class files.
+ * An index does not depend on any classloader, so a single index is shared by every
+ * {@link JarArchive} of the same physical jar (see {@link JarRegistry}).
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarIndex {
+    private final int[] classIds;
+    private final int[] sizes;
+    private final int[] compressedSizes;
+    private final long totalSize;
+    private final long totalCompressedSize;
+
+    /**
+     * Create an index of the supplied jar, using the {@link JarIndexCache} if it is enabled.
+     * Nested jars (see {@link NestedJar}) and class directories (see {@link ClassDirectory}) are
+     * not cached, since the cache validates an index against the length and modification time of
+     * the file itself.
+     */
+    JarIndex(File jar) {
+        boolean cacheable = !jar.isDirectory() && NestedJar.outerFile(jar) == null;
+        JarIndexCache cache = cacheable ? JarIndexCache.getInstance() : null;
+        ClassEntries classes = cache == null ? null : cache.get(jar);
+        if (classes == null) {
+            classes = getClasses(jar);
+            if (cache != null) {
+                cache.put(jar, classes);
+            }
+        }
+
+        // sort the classes by their identifiers, keeping track of where each one came from
+        int[] ids = ClassNameDictionary.getInstance().internEach(classes.names());
+        long[] idsAndPositions = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            idsAndPositions[i] = ((long) ids[i] << 32) | i;
+        }
+        Arrays.sort(idsAndPositions);
+
+        int[] sortedIds = new int[ids.length];
+        int[] sortedSizes = new int[ids.length];
+        int[] sortedCompressedSizes = new int[ids.length];
+        long total = 0;
+        long totalCompressed = 0;
+        int count = 0;
+        for (long idAndPosition : idsAndPositions) {
+            int id = (int) (idAndPosition >>> 32);
+            int position = (int) idAndPosition;
+            // a jar can contain the same entry more than once
+            if (count > 0 && sortedIds[count - 1] == id) {
+                continue;
+            }
+            sortedIds[count] = id;
+            sortedSizes[count] = classes.size(position);
+            sortedCompressedSizes[count] = classes.compressedSize(position);
+            total += sortedSizes[count];
+            totalCompressed += sortedCompressedSizes[count];
+            count++;
+        }
+
+        if (count < ids.length) {
+            sortedIds = Arrays.copyOf(sortedIds, count);
+            sortedSizes = Arrays.copyOf(sortedSizes, count);
+            sortedCompressedSizes = Arrays.copyOf(sortedCompressedSizes, count);
+        }
+        this.classIds = sortedIds;
+        this.sizes = sortedSizes;
+        this.compressedSizes = sortedCompressedSizes;
+        this.totalSize = total;
+        this.totalCompressedSize = totalCompressed;
+    }
+
+    /**
+     * Return the sorted identifiers of the classes in this jar; the array must not be modified.
+     */
+    int[] getClassIds() {
+        return classIds;
+    }
+
+    /**
+     * Return the uncompressed size of the class at the supplied position of {@link #getClassIds()}.
+     */
+    int getSize(int position) {
+        return sizes[position];
+    }
+
+    /**
+     * Return the compressed size of the class at the supplied position of {@link #getClassIds()}.
+     */
+    int getCompressedSize(int position) {
+        return compressedSizes[position];
+    }
+
+    /**
+     * Return the uncompressed size of all the classes in this jar.
+     */
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Return the compressed size of all the classes in this jar.
+     */
+    long getTotalCompressedSize() {
+        return totalCompressedSize;
+    }
+
+    private ClassEntries getClasses(File archive) {
+        if (archive.isDirectory()) {
+            try {
+                return ClassDirectory.readClasses(archive);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to list classes in a directory [" + archive + "]: " + e);
+            }
+        }
+
+        if (NestedJar.outerFile(archive) != null) {
+            try {
+                return NestedJar.readClasses(archive);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read a nested jar archive [" + archive + "]: " + e);
+            }
+        }
+
+        try {
+            return CentralDirectoryReader.readClasses(archive);
+        } catch (IOException e) {
+            // the fast reader does not handle every kind of archive; JarFile will do
+        }
+
+        ClassEntries classes = new ClassEntries();
+        for (JarEntry entry : getEntries(archive)) {
+            String name = entry.getName();
+            if (!name.endsWith(".class")) {
+                continue;
+            }
+
+            //convert 'name/of/package/someclass.class' into 'name.of.package.someclass'
+            classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'), entry.getSize(),
+                    entry.getCompressedSize());
+        }
+        return classes;
+    }
+
+    private List<JarEntry> getEntries(File archive) {
+        try {
+            JarFile jarFile = new JarFile(archive);
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                List<JarEntry> list = new ArrayList<JarEntry>();
+                while (entries.hasMoreElements()) {
+                    list.add(entries.nextElement());
+                }
+                return list;
+            } finally {
+                jarFile.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read entries from a jar archive [" + archive + "]: " + e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * A persistent cache of the class names contained in jar files. Jars on a classpath rarely change,
+ * so there is no need to rescan them on every analysis.
+ * <p>
+ * Each jar gets its own index file named after the digest of its canonical path. The index file
+ * records the canonical path, the length and the last modification time of the jar, and is only
+ * used while all three still match. The class names are sorted and front-coded (each name stores
+ * only the bytes that differ from the previous one) and followed by the uncompressed and compressed
+ * size of the class file. The index file is memory-mapped on read.
+ * <p>
+ * The cache lives in the directory given by the <code>loosejar.indexDir</code> system property
+ * (<code>~/.loosejar/index</code> by default) and can be switched off by setting the
+ * <code>loosejar.indexCache</code> system property to <code>false</code>.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarIndexCache {
+    private static final int MAGIC = 0x4C4A4958; // 'LJIX'
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final JarIndexCache INSTANCE = create();
+
+    private final File directory;
+
+    JarIndexCache(File directory) {
+        this.directory = directory;
+    }
+
+    private static JarIndexCache create() {
+        if ("false".equalsIgnoreCase(System.getProperty("loosejar.indexCache"))) {
+            return null;
+        }
+
+        String dir = System.getProperty("loosejar.indexDir");
+        if (dir == null || dir.equals("")) {
+            dir = System.getProperty("user.home") + File.separator + ".loosejar" + File.separator + "index";
+        }
+        return new JarIndexCache(new File(dir));
+    }
+
+    /**
+     * Return the cache or <code>null</code> if caching has been switched off.
+     */
+    static JarIndexCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the cached classes of the supplied jar or <code>null</code> if the jar has not been
+     * indexed yet or has changed since it was indexed.
+     */
+    ClassEntries get(File jar) {
+        try {
+            String path = jar.getCanonicalPath();
+            File index = indexFile(path);
+            if (!index.isFile()) {
+                return null;
+            }
+
+            FileChannel channel = new RandomAccessFile(index, "r").getChannel();
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return read(buffer, path, jar.length(), jar.lastModified());
+            } finally {
+                channel.close();
+            }
+        } catch (Exception e) {
+            // a broken index is simply a cache miss; it will be overwritten
+            log("Ignoring the index of [" + jar + "]: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the classes of the supplied jar. Failures are logged and otherwise ignored.
+     */
+    void put(File jar, ClassEntries classes) {
+        try {
+            String path = jar.getCanonicalPath();
+            byte[] data = write(path, jar.length(), jar.lastModified(), classes);
+
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("cannot create directory [" + directory + "]");
+            }
+
+            // write a temporary file and move it into place, so readers never see a partial index
+            File index = indexFile(path);
+            File tmp = File.createTempFile(index.getName(), ".tmp", directory);
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+                Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            log("Failed to store the index of [" + jar + "]: " + e);
+        }
+    }
+
+    private File indexFile(String canonicalPath) {
+        return new File(directory, digest(canonicalPath) + ".idx");
+    }
+
+    private static ClassEntries read(ByteBuffer buffer, String path, long length, long lastModified)
+            throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+
+        byte[] storedPath = new byte[readLength(buffer)];
+        buffer.get(storedPath);
+        if (!path.equals(new String(storedPath, UTF_8))
+                || buffer.getLong() != length || buffer.getLong() != lastModified) {
+            return null;
+        }
+
+        int count = readLength(buffer);
+        ClassEntries classes = new ClassEntries();
+        byte[] name = new byte[256];
+        int previousLength = 0;
+        for (int i = 0; i < count; i++) {
+            int shared = readVarInt(buffer);
+            if (shared > previousLength) {
+                throw new IOException("shared prefix of " + shared + " bytes exceeds the previous name");
+            }
+            int suffix = readLength(buffer);
+            if (shared + suffix > name.length) {
+                name = Arrays.copyOf(name, Math.max(shared + suffix, name.length * 2));
+            }
+            buffer.get(name, shared, suffix);
+            previousLength = shared + suffix;
+            String className = new String(name, 0, previousLength, UTF_8);
+            int size = readVarInt(buffer);
+            classes.add(className, size, readVarInt(buffer));
+        }
+        return classes;
+    }
+
+    private static byte[] write(String path, long length, long lastModified, final ClassEntries classes) {
+        Integer[] sorted = new Integer[classes.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return classes.name(i1).compareTo(classes.name(i2));
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + sorted.length * 16);
+        writeInt(out, MAGIC);
+        writeInt(out, VERSION);
+        byte[] pathBytes = path.getBytes(UTF_8);
+        writeVarInt(out, pathBytes.length);
+        out.write(pathBytes, 0, pathBytes.length);
+        writeLong(out, length);
+        writeLong(out, lastModified);
+
+        writeVarInt(out, sorted.length);
+        byte[] previous = new byte[0];
+        for (int i : sorted) {
+            byte[] name = classes.name(i).getBytes(UTF_8);
+            int shared = 0;
+            int max = Math.min(previous.length, name.length);
+            while (shared < max && previous[shared] == name[shared]) {
+                shared++;
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, name.length - shared);
+            out.write(name, shared, name.length - shared);
+            writeVarInt(out, classes.size(i));
+            writeVarInt(out, classes.compressedSize(i));
+            previous = name;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Read a length or a count, which can never exceed the number of bytes left in the index.
+     */
+    private static int readLength(ByteBuffer buffer) throws IOException {
+        int length = readVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new IOException("length " + length + " exceeds the " + buffer.remaining() + " remaining bytes");
+        }
+        return length;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("negative varint " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("varint longer than 5 bytes");
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(UTF_8));
+            StringBuilder buf = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+                buf.append(Character.forDigit(b & 0xF, 16));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * Writes slimmed copies of jars which contain only the classes an application has been seen to
+ * load, as listed in a usage snapshot (see {@link UsageSnapshotReader}). The versions of a kept
+ * class in a multi-release jar are kept along with it. The manifest and the module descriptor are
+ * always kept; the other resources are kept on request, and so are the classes statically referred to
+ * by the kept classes (see {@link ClassReferences}), transitively and across all the jars of the
+ * snapshot.
+ * <p>
+ * A copy is built by streaming the local records of the kept entries from the mapped jar into the
+ * new one as they are, so nothing is inflated or compressed again, and then writing a central
+ * directory pointing at their new offsets. Jars with more than 65535 kept entries or larger than
+ * 4GB, which would need Zip64, are not supported, nor are class directories and nested jars.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarMinimizer {
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String MODULE_INFO = "module-info";
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_LENGTH = 22;
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final boolean resources;
+    private final boolean references;
+
+    /**
+     * @param resources  <code>true</code> to keep all the resources, not only the manifest
+     * @param references <code>true</code> to keep the classes referred to by the loaded classes
+     */
+    JarMinimizer(boolean resources, boolean references) {
+        this.resources = resources;
+        this.references = references;
+    }
+
+    /**
+     * Write a slimmed copy of each of the jars of the supplied snapshot into the supplied
+     * directory, under the absolute path of the original jar, returning the copies written.
+     */
+    List<File> minimize(File snapshot, File targetDirectory) throws IOException {
+        Map<File, Set<String>> usage = UsageSnapshotReader.read(snapshot);
+
+        List<File> jars = new ArrayList<File>();
+        for (File jar : usage.keySet()) {
+            if (jar.isFile()) {
+                jars.add(jar);
+            } else {
+                log("IGNORED: [" + jar + "]. Only jar files can be minimized.");
+            }
+        }
+        if (references) {
+            usage = addReferences(jars, usage);
+        }
+
+        List<File> targets = new ArrayList<File>();
+        for (File jar : jars) {
+            // the drive letter of a Windows path cannot be a part of a file name
+            File target = new File(targetDirectory, jar.getAbsolutePath().replace(":", ""));
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create a directory [" + parent + "]");
+            }
+            try {
+                minimize(jar, usage.get(jar), target);
+                targets.add(target);
+            } catch (IOException e) {
+                log("IGNORED: [" + jar + "]. " + e);
+                //noinspection ResultOfMethodCallIgnored
+                target.delete();
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Write a copy of the supplied jar with only the supplied classes, the manifest and, if asked
+     * for, the other resources.
+     */
+    void minimize(File jar, Set<String> classes, File target) throws IOException {
+        CentralDirectoryReader reader = CentralDirectoryReader.open(jar);
+        List<ByteBuffer> centralHeaders = new ArrayList<ByteBuffer>();
+
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            FileChannel channel = out.getChannel();
+            long offset = 0;
+            while (reader.next()) {
+                boolean keep;
+                if (reader.isClass()) {
+                    String className = JarClassFiles.baseClassName(reader.className());
+                    keep = className.equals(MODULE_INFO) || classes.contains(className);
+                } else {
+                    keep = resources || reader.name().equals(MANIFEST);
+                }
+                if (!keep) {
+                    continue;
+                }
+
+                ByteBuffer record = reader.localRecord();
+                if (offset > MAX_OFFSET || centralHeaders.size() == MAX_ENTRIES) {
+                    throw new ZipException("the minimized jar would need Zip64");
+                }
+                ByteBuffer header = copy(reader.centralHeader());
+                if ((header.getInt(42) & MAX_OFFSET) == MAX_OFFSET) {
+                    throw new ZipException("Zip64 entries are not supported");
+                }
+                header.putInt(42, (int) offset);
+                centralHeaders.add(header);
+
+                offset += record.remaining();
+                write(channel, record);
+            }
+
+            long directoryOffset = offset;
+            for (ByteBuffer header : centralHeaders) {
+                offset += header.remaining();
+                write(channel, header);
+            }
+            if (offset > MAX_OFFSET) {
+                throw new ZipException("the minimized jar would need Zip64");
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(END_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) centralHeaders.size());
+            end.putShort((short) centralHeaders.size());
+            end.putInt((int) (offset - directoryOffset));
+            end.putInt((int) directoryOffset);
+            end.putShort((short) 0);
+            end.flip();
+            write(channel, end);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Return the supplied usage with the classes referred to by the loaded classes added to it.
+     */
+    private static Map<File, Set<String>> addReferences(List<File> jars, Map<File, Set<String>> usage) {
+        // the first jar containing a class is where it is loaded from
+        Map<String, JarClassFiles> owners = new HashMap<String, JarClassFiles>();
+        for (File jar : jars) {
+            try {
+                JarClassFiles classFiles = new JarClassFiles(jar);
+                for (String className : classFiles.getClassNames()) {
+                    if (!owners.containsKey(className)) {
+                        owners.put(className, classFiles);
+                    }
+                }
+            } catch (IOException e) {
+                log("IGNORED: [" + jar + "]. " + e);
+            }
+        }
+
+        Map<File, Set<String>> closure = new HashMap<File, Set<String>>();
+        Set<String> seen = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        for (File jar : jars) {
+            closure.put(jar, new HashSet<String>(usage.get(jar)));
+            for (String className : usage.get(jar)) {
+                if (seen.add(className)) {
+                    pending.add(className);
+                }
+            }
+        }
+
+        List<String> referenced = new ArrayList<String>();
+        while (!pending.isEmpty()) {
+            String className = pending.poll();
+            JarClassFiles owner = owners.get(className);
+            if (owner == null) {
+                continue; // a class of the JDK or of a jar which is not in the snapshot
+            }
+            closure.get(owner.getJar()).add(className);
+
+            referenced.clear();
+            try {
+                ClassReferences.read(owner.read(className), referenced);
+                // any version of the class may be the one which is loaded
+                for (String version : owner.getVersions(className)) {
+                    ClassReferences.read(owner.read(version), referenced);
+                }
+            } catch (IOException e) {
+                log("IGNORED: [" + className + "] in [" + owner.getJar() + "]. " + e);
+            }
+            for (String reference : referenced) {
+                if (seen.add(reference)) {
+                    pending.add(reference);
+                }
+            }
+        }
+        return closure;
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A process-wide registry of {@link JarIndex}es. The same physical jar is often visible to many
+ * classloaders (the web application and the container, or each of the deployments sharing a
+ * library), and without the registry it would be scanned once for each of them. Jars are keyed by
+ * their canonical path, so symbolic links and relative paths resolve to a single entry, and each
+ * entry remembers the identity of the file it was built from (its file key, length and
+ * modification time, or those of the outer jar for a nested one). A jar that has been replaced
+ * since is scanned again.
+ * <p>
+ * Concurrent requests for the same jar wait for a single scan instead of repeating it. A scan that
+ * fails is not remembered, so the jar is tried again the next time it is requested. Jars which have
+ * been deleted or replaced are dropped by {@link #prune()} at the start of every analysis, so the
+ * registry does not keep the indexes of applications which have been redeployed or undeployed.
+ * <p>
+ * Class directories are never registered: neither the length nor the modification time of a
+ * directory changes when a class deeper in its tree is recompiled, so a registered index could go
+ * stale unnoticed. A directory is walked again every time it is requested.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarRegistry {
+    private static final JarRegistry INSTANCE = new JarRegistry();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private JarRegistry() {
+    }
+
+    static JarRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the index of the supplied jar, scanning it only if it has not been scanned before or
+     * has changed since.
+     *
+     * @throws RuntimeException if the jar cannot be read
+     */
+    JarIndex get(final File jar) {
+        if (jar.isDirectory()) {
+            return new JarIndex(jar);
+        }
+
+        String key = canonicalPath(jar);
+        Object identity = identity(jar);
+
+        Entry entry = entries.get(key);
+        while (entry == null || !entry.identity.equals(identity)) {
+            Entry created = new Entry(jar, identity, new FutureTask<JarIndex>(new Callable<JarIndex>() {
+                public JarIndex call() {
+                    return new JarIndex(jar);
+                }
+            }));
+            boolean installed = entry == null
+                    ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, entry, created);
+            if (installed) {
+                created.index.run();
+                entry = created;
+            } else {
+                entry = entries.get(key);
+            }
+        }
+
+        try {
+            return entry.index.get();
+        } catch (ExecutionException e) {
+            entries.remove(key, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a jar archive [" + jar + "] to be scanned");
+        }
+    }
+
+    /**
+     * Drop all the indexes.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Drop the indexes of the jars which no longer exist or have changed since they were scanned;
+     * a jar which is still in use is scanned again the next time it is requested.
+     */
+    void prune() {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            File jar = entry.getValue().jar;
+            File file = NestedJar.outerFile(jar);
+            if (file == null) {
+                file = jar;
+            }
+            if (!file.exists() || !entry.getValue().identity.equals(identity(jar))) {
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String canonicalPath(File jar) {
+        File outer = NestedJar.outerFile(jar);
+        if (outer != null) {
+            // only the outer jar can be resolved on the file system
+            return canonicalPath(outer) + jar.getPath().substring(outer.getPath().length());
+        }
+        try {
+            return jar.getCanonicalPath();
+        } catch (IOException e) {
+            return jar.getAbsolutePath();
+        }
+    }
+
+    private static Object identity(File jar) {
+        File outer = NestedJar.outerFile(jar);
+        if (outer != null) {
+            // a nested jar changes along with its outer jar
+            jar = outer;
+        }
+        Object fileKey = null;
+        try {
+            fileKey = Files.readAttributes(jar.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            // the length and the modification time will do
+        }
+        return fileKey + ":" + jar.length() + ":" + jar.lastModified();
+    }
+
+    /**
+     * The index of a jar, or the scan that is building it, along with the identity of the file.
+     */
+    private static final class Entry {
+        private final File jar;
+        private final Object identity;
+        private final FutureTask<JarIndex> index;
+
+        Entry(File jar, Object identity, FutureTask<JarIndex> index) {
+            this.jar = jar;
+            this.identity = identity;
+            this.index = index;
+        }
+    }
+}
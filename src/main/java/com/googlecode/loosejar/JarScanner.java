@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.googlecode.loosejar.Constants.*;
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * This class builds {@link JarArchive}s on a bounded pool of daemon threads. Scanning jars is
+ * I/O and inflate bound, so there is no point doing it one jar at a time on the thread that
+ * requested the analysis.
+ * <p>
+ * The size of the pool is given by the <code>loosejar.scanThreads</code> system property and
+ * defaults to the number of available processors; a value of <code>1</code> scans on the
+ * calling thread. The results are always returned in the order of the supplied files, and a jar
+ * that fails to be scanned is logged and left out without affecting the others. Scanning can also
+ * be bounded by a deadline, in which case whatever has been scanned by then is returned.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class JarScanner {
+    private static final int THREADS =
+            Math.max(1, Integer.getInteger("loosejar.scanThreads", Runtime.getRuntime().availableProcessors()));
+
+    private static ThreadPoolExecutor pool;
+
+    private JarScanner() {
+    }
+
+    /**
+     * Scan the supplied jars returning the archives in the same order; jars that could not be read
+     * are omitted.
+     */
+    static List<JarArchive> scan(List<File> jars) {
+        List<JarArchive> list = new ArrayList<JarArchive>(jars.size());
+        if (THREADS == 1 || jars.size() <= 1) {
+            for (File jar : jars) {
+                try {
+                    list.add(new JarArchive(jar, JarRegistry.getInstance().get(jar)));
+                } catch (RuntimeException e) {
+                    ignored(jar, e);
+                }
+            }
+            return list;
+        }
+
+        List<Future<JarArchive>> futures = new ArrayList<Future<JarArchive>>(jars.size());
+        for (final File jar : jars) {
+            futures.add(pool().submit(new Callable<JarArchive>() {
+                public JarArchive call() {
+                    return new JarArchive(jar, JarRegistry.getInstance().get(jar));
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                list.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                ignored(jars.get(i), e.getCause());
+            } catch (InterruptedException e) {
+                for (Future<JarArchive> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                log("Jar scanning has been interrupted; the results are incomplete.");
+                break;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Index the supplied jars until the deadline (in terms of {@link System#nanoTime()}) passes,
+     * returning the indexes of the jars that have been read. Smaller jars are scanned first, so as
+     * many jars as possible make it before the deadline. The jars that have not been scanned in
+     * time are added to <code>unfinished</code>; jars that could not be read are omitted.
+     */
+    static Map<File, JarIndex> index(Collection<File> jars, long deadline, Collection<File> unfinished) {
+        // a nested jar has no length of its own, so it is ordered by the size of its entry
+        final Map<File, Long> lengths = new HashMap<File, Long>();
+        for (File jar : jars) {
+            lengths.put(jar, NestedJar.length(jar));
+        }
+        List<File> bySize = new ArrayList<File>(jars);
+        Collections.sort(bySize, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long l1 = lengths.get(f1);
+                long l2 = lengths.get(f2);
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        // the pool is used even with a single thread, so the wait can be cut short
+        Map<File, Future<JarIndex>> futures = new LinkedHashMap<File, Future<JarIndex>>();
+        for (final File jar : bySize) {
+            futures.put(jar, pool().submit(new Callable<JarIndex>() {
+                public JarIndex call() {
+                    return JarRegistry.getInstance().get(jar);
+                }
+            }));
+        }
+
+        Map<File, JarIndex> indexes = new HashMap<File, JarIndex>();
+        boolean interrupted = false;
+        for (Map.Entry<File, Future<JarIndex>> entry : futures.entrySet()) {
+            Future<JarIndex> future = entry.getValue();
+            try {
+                if (!interrupted) {
+                    long timeout = Math.max(0, deadline - System.nanoTime());
+                    indexes.put(entry.getKey(), future.get(timeout, TimeUnit.NANOSECONDS));
+                    continue;
+                }
+            } catch (TimeoutException e) {
+                // not scanned in time
+            } catch (ExecutionException e) {
+                ignored(entry.getKey(), e.getCause());
+                continue;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            future.cancel(true);
+            unfinished.add(entry.getKey());
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return indexes;
+    }
+
+    private static void ignored(File jar, Throwable t) {
+        log("IGNORED: [" + jar + "]. " + t);
+    }
+
+    /**
+     * Return the pool of scanner threads, which other analysis work may share.
+     */
+    static synchronized ThreadPoolExecutor pool() {
+        if (pool == null) {
+            pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, PROJECT_NAME + "-scanner-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // idle scanner threads should not linger in the application
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+}
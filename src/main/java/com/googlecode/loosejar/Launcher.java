@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.googlecode.loosejar.Constants.*;
+
+/**
+ * The command line entry point of <code>loosejar.jar</code>, run as
+ * <code>java -jar loosejar.jar &lt;command&gt; ...</code>. The supported commands are:
+ * <ul>
+ * <li><code>list</code> - list the JVMs that can be attached to</li>
+ * <li><code>attach &lt;pid&gt; [key=value ...]</code> - load loosejar into a running JVM, have it
+ * report once (see {@link LooseJarAgent#agentmain}) and detach; the options are the usual
+ * <code>loosejar.*</code> configuration without the prefix</li>
+ * <li><code>minimize &lt;snapshot&gt; &lt;directory&gt; [--resources] [--references]</code> - write
+ * slimmed copies of the jars of a usage snapshot (see {@link JarMinimizer})</li>
+ * <li><code>merge [--usage] &lt;output&gt; &lt;snapshot or directory&gt; ...</code> - merge the usage
+ * snapshots of many JVMs into a single report (see {@link SnapshotMerger})</li>
+ * </ul>
+ * Unless an <code>outputFile</code> option is given, the report is written into a temporary file
+ * and printed here rather than onto the console of the target JVM.
+ * <p>
+ * The attach API is used reflectively, so that this class loads on any JVM; on Java 8 it is
+ * found in the <code>tools.jar</code> of the JDK.
+ *
+ * @author Kyrill Alyoshin
+ */
+public final class Launcher {
+    private static final String VIRTUAL_MACHINE = "com.sun.tools.attach.VirtualMachine";
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            System.exit(1);
+        }
+
+        String command = args[0];
+        if (command.equals("list") && args.length == 1) {
+            list();
+        } else if (command.equals("attach") && args.length >= 2) {
+            attach(args);
+        } else if (command.equals("minimize") && args.length >= 3) {
+            minimize(args);
+        } else if (command.equals("merge") && args.length >= 3) {
+            merge(args);
+        } else {
+            usage();
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar " + PROJECT_NAME + ".jar <command> ...");
+        System.err.println();
+        System.err.println("    list                         list the JVMs that can be attached to");
+        System.err.println("    attach <pid> [key=value ...] report on a running JVM once, e.g.");
+        System.err.println("                                 attach 1234 format=csv outputFile=/tmp/report.csv");
+        System.err.println("    minimize <snapshot> <directory> [--resources] [--references]");
+        System.err.println("                                 copy the jars of a usage snapshot into a directory");
+        System.err.println("                                 keeping only the loaded classes and the manifest,");
+        System.err.println("                                 and all the resources or the classes referred to");
+        System.err.println("                                 by the loaded ones if asked");
+        System.err.println("    merge [--usage] <output> <snapshot or directory> ...");
+        System.err.println("                                 merge the usage snapshots of many JVMs into a CSV");
+        System.err.println("                                 report, or into another snapshot with --usage");
+    }
+
+    private static void list() throws Exception {
+        Class<?> vmClass = virtualMachineClass();
+        List<?> descriptors = (List<?>) vmClass.getMethod("list").invoke(null);
+        for (Object descriptor : descriptors) {
+            Class<?> descriptorClass = Class.forName(VIRTUAL_MACHINE + "Descriptor", true, vmClass.getClassLoader());
+            System.out.println(descriptorClass.getMethod("id").invoke(descriptor) + "\t"
+                    + descriptorClass.getMethod("displayName").invoke(descriptor));
+        }
+    }
+
+    private static void attach(String[] args) throws Exception {
+        String pid = args[1];
+
+        StringBuilder options = new StringBuilder();
+        boolean outputFile = false;
+        for (int i = 2; i < args.length; i++) {
+            outputFile |= args[i].startsWith("outputFile=") || args[i].startsWith(PROJECT_NAME + ".outputFile=");
+            options.append(options.length() == 0 ? "" : ",").append(args[i]);
+        }
+
+        // unless the user asked for a file, bring the report back here
+        File report = null;
+        if (!outputFile) {
+            report = File.createTempFile(PROJECT_NAME, ".txt");
+            options.append(options.length() == 0 ? "" : ",").append("outputFile=").append(report.getAbsolutePath());
+        }
+
+        Class<?> vmClass = virtualMachineClass();
+        Object vm = invoke(vmClass.getMethod("attach", String.class), null, pid);
+        try {
+            Method loadAgent = vmClass.getMethod("loadAgent", String.class, String.class);
+            invoke(loadAgent, vm, agentJar().getAbsolutePath(), options.toString());
+        } finally {
+            vmClass.getMethod("detach").invoke(vm);
+        }
+
+        if (report != null) {
+            if (report.length() == 0) {
+                System.err.println("The report could not be read from [" + report
+                        + "]; check the console of the target JVM.");
+            } else {
+                print(report);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            report.delete();
+        }
+    }
+
+    private static void minimize(String[] args) throws IOException {
+        boolean resources = false;
+        boolean references = false;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--resources")) {
+                resources = true;
+            } else if (args[i].equals("--references")) {
+                references = true;
+            } else {
+                usage();
+                System.exit(1);
+            }
+        }
+
+        JarMinimizer minimizer = new JarMinimizer(resources, references);
+        for (File jar : minimizer.minimize(new File(args[1]), new File(args[2]))) {
+            System.out.println(jar + "\t" + jar.length());
+        }
+    }
+
+    private static void merge(String[] args) throws IOException {
+        int i = 1;
+        boolean usage = args[i].equals("--usage");
+        if (usage) {
+            i++;
+        }
+        if (args.length - i < 2) {
+            usage();
+            System.exit(1);
+        }
+
+        File output = new File(args[i++]);
+        List<File> snapshots = new ArrayList<File>();
+        for (; i < args.length; i++) {
+            File file = new File(args[i]);
+            File[] files = file.listFiles();
+            if (files == null) {
+                snapshots.add(file);
+            } else {
+                Arrays.sort(files);
+                for (File f : files) {
+                    if (f.isFile()) {
+                        snapshots.add(f);
+                    }
+                }
+            }
+        }
+        new SnapshotMerger(usage).merge(snapshots, output);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws Exception {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            // the attach API reports everything worth knowing in its own exceptions
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static void print(File report) throws IOException {
+        InputStream in = new FileInputStream(report);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                System.out.write(buffer, 0, n);
+            }
+            System.out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File agentJar() throws Exception {
+        URL location = Launcher.class.getProtectionDomain().getCodeSource().getLocation();
+        File jar = new File(location.toURI());
+        if (!jar.isFile()) {
+            throw new IllegalStateException("The launcher must be run from " + PROJECT_NAME + ".jar, not from ["
+                    + jar + "]");
+        }
+        return jar;
+    }
+
+    private static Class<?> virtualMachineClass() throws Exception {
+        try {
+            return Class.forName(VIRTUAL_MACHINE);
+        } catch (ClassNotFoundException e) {
+            // Java 8 keeps the attach API in the tools.jar of the JDK
+            File javaHome = new File(System.getProperty("java.home"));
+            File toolsJar = new File(javaHome.getParentFile(), "lib" + File.separator + "tools.jar");
+            if (!toolsJar.isFile()) {
+                throw new IllegalStateException("The attach API is not available; run the launcher with a JDK");
+            }
+            ClassLoader loader = new URLClassLoader(new URL[]{toolsJar.toURI().toURL()});
+            return Class.forName(VIRTUAL_MACHINE, true, loader);
+        }
+    }
+}
@@ -25,6 +25,8 @@ import javax.management.ObjectName;
 
 import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
 
 import static com.googlecode.loosejar.Constants.*;
 import static com.googlecode.loosejar.Logger.*;
@@ -33,16 +35,121 @@ import static com.googlecode.loosejar.Logger.*;
  * This is the <em>Java Agent</em> of the project. It represents an entry point into the application
  * to be specified at the JVM startup. The {@link #premain} method registers the analyzer
  * ({@link JVMAnalyzer} to be run on application shutdown and as a JMX service.
+ * <p>
+ * The agent can also be loaded into a running JVM (see {@link Launcher}), in which case the
+ * {@link #agentmain} method produces a single report and then drops the data it has built.
  *
  * @author Kyrill Alyoshin
  */
 public class LooseJarAgent {
+    // set once the agent has been started along with the JVM, whose analysis must be left alone
+    private static volatile boolean started;
+
     /**
      * Registers {@link JVMAnalyzer} to run at application shutdown and as a JMX service.
+     * If the <code>loosejar.record</code> system property is set to <code>true</code>, a
+     * {@link ClassLoadRecorder} is registered as well to note the classes as they are loaded.
+     * If the <code>loosejar.snapshotInterval</code> system property is set, snapshots are taken
+     * periodically by the {@link SnapshotScheduler}, which implies recording.
+     * <p>
+     * Any of the <code>loosejar.*</code> system properties can also be given as agent arguments,
+     * e.g. <code>-javaagent:loosejar.jar=snapshotInterval=5,format=csv</code>; the system
+     * properties take precedence.
      */
     public static void premain(String args, Instrumentation instrumentation) {
+        started = true;
+        applyAgentArgs(args);
+
+        long snapshotInterval = SnapshotScheduler.parseInterval(System.getProperty("loosejar.snapshotInterval"));
+        if (Boolean.getBoolean("loosejar.record") || snapshotInterval > 0) {
+            registerRecorder(instrumentation);
+        }
         registerOnShutdown(instrumentation);
         registerWithJmx(instrumentation);
+        if (snapshotInterval > 0) {
+            registerSnapshots(snapshotInterval);
+        }
+    }
+
+    /**
+     * Produces a single report of a running JVM the agent has been attached to. Nothing is
+     * registered: no class file transformer, no shutdown hook and no JMX service. Once the report
+     * has been written, the jar indexes and the class name dictionary are cleared, unless the agent
+     * was also started along with the JVM, so all that stays behind are the classes of the agent
+     * and, for a minute at most, its idle worker threads.
+     * <p>
+     * The agent arguments override the <code>loosejar.*</code> system properties for the duration
+     * of the report only; they are system properties all the same, visible to the whole JVM while
+     * the report is being produced.
+     */
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        Map<String, String> previous = applyAgentArgs(args, true);
+        try {
+            log(PROJECT_NAME + " has been attached; analyzing the JVM once.");
+            new JVMAnalyzer(instrumentation).displayResults();
+        } finally {
+            if (!started) {
+                JarRegistry.getInstance().clear();
+                ClassNameDictionary.getInstance().clear();
+            }
+            for (Map.Entry<String, String> entry : previous.entrySet()) {
+                if (entry.getValue() == null) {
+                    System.clearProperty(entry.getKey());
+                } else {
+                    System.setProperty(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn comma separated <code>key=value</code> agent arguments into <code>loosejar.key</code>
+     * system properties, unless they are already set. A key without a value means <code>true</code>.
+     */
+    static void applyAgentArgs(String args) {
+        applyAgentArgs(args, false);
+    }
+
+    /**
+     * Apply the agent arguments returning the previous values of the properties that have been
+     * set, <code>null</code> for those that were not set before.
+     */
+    private static Map<String, String> applyAgentArgs(String args, boolean override) {
+        Map<String, String> previous = new HashMap<String, String>();
+        if (args == null) {
+            return previous;
+        }
+
+        for (String option : args.split(",")) {
+            option = option.trim();
+            if (option.equals("")) {
+                continue;
+            }
+
+            int eq = option.indexOf('=');
+            String key = (eq < 0 ? option : option.substring(0, eq)).trim();
+            String value = eq < 0 ? "true" : option.substring(eq + 1).trim();
+            if (!key.startsWith(PROJECT_NAME + '.')) {
+                key = PROJECT_NAME + '.' + key;
+            }
+            if (override || System.getProperty(key) == null) {
+                if (!previous.containsKey(key)) {
+                    previous.put(key, System.getProperty(key));
+                }
+                System.setProperty(key, value);
+            }
+        }
+        return previous;
+    }
+
+    private static void registerRecorder(Instrumentation instrumentation) {
+        ClassLoadRecorder.install(instrumentation);
+        log(PROJECT_NAME + " is recording classes as they are loaded.");
+    }
+
+    private static void registerSnapshots(long interval) {
+        SnapshotScheduler.schedule(interval);
+        log(PROJECT_NAME + " snapshots are scheduled every " + interval + " seconds.");
     }
 
     private static void registerOnShutdown(Instrumentation instrumentation) {
@@ -51,8 +158,13 @@ public class LooseJarAgent {
     }
 
     private static void registerWithJmx(Instrumentation instrumentation) {
+        registerWithJmx(new LooseJar(instrumentation), LooseJarMBean.class.getSimpleName());
+        registerWithJmx(new LooseJarStats(instrumentation), "LooseJarStats");
+    }
+
+    private static void registerWithJmx(Object mbean, String type) {
         log("Registering " + PROJECT_NAME + " as a JMX service...");
-        String jmxName = LooseJarMBean.class.getPackage().getName() + ":type=" + LooseJarMBean.class.getSimpleName();
+        String jmxName = LooseJarMBean.class.getPackage().getName() + ":type=" + type;
 
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
 
@@ -68,7 +180,7 @@ public class LooseJarAgent {
 
         if (name != null) {
             try {
-                mbs.registerMBean(new LooseJar(instrumentation), name);
+                mbs.registerMBean(mbean, name);
             } catch (InstanceAlreadyExistsException e) {
                 success = false;
                 log("Failed to register " + PROJECT_NAME + " with JMX, " +
@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import java.lang.instrument.Instrumentation;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.googlecode.loosejar.Constants.*;
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * This is the implementation of {@link LooseJarStatsMBean}. Reads are served from an immutable
+ * snapshot of the analysis; a read that finds the snapshot older than its time to live (given in
+ * seconds by the <code>loosejar.jmxTtl</code> system property, 60 by default) triggers a refresh
+ * on a background thread and still returns the current snapshot, so monitoring tools polling this
+ * bean never wait for an analysis. Only the very first read waits for the first snapshot.
+ *
+ * @author Kyrill Alyoshin
+ */
+public class LooseJarStats implements LooseJarStatsMBean {
+    private static final String[] CLASS_LOADER_ITEMS = {"id", "name", "jars", "loadedClasses", "totalClasses"};
+    private static final String[] JAR_ITEMS = {"classLoaderId", "jar", "utilization", "loadedClasses", "totalClasses"};
+
+    private static final CompositeType CLASS_LOADER_TYPE;
+    private static final TabularType CLASS_LOADERS_TYPE;
+    private static final CompositeType JAR_TYPE;
+    private static final TabularType JARS_TYPE;
+
+    static {
+        try {
+            CLASS_LOADER_TYPE = new CompositeType("ClassLoaderUsage", "Classloader utilization",
+                    CLASS_LOADER_ITEMS,
+                    new String[]{"Classloader identity", "Classloader class name", "Number of jars",
+                            "Classes loaded from the jars", "Classes in the jars"},
+                    new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER,
+                            SimpleType.INTEGER, SimpleType.INTEGER});
+            CLASS_LOADERS_TYPE = new TabularType("ClassLoaders", "Classloader utilization",
+                    CLASS_LOADER_TYPE, new String[]{"id"});
+
+            JAR_TYPE = new CompositeType("JarUsage", "Jar utilization",
+                    JAR_ITEMS,
+                    new String[]{"Classloader identity", "Jar path", "Percentage of the classes loaded",
+                            "Classes loaded from the jar", "Classes in the jar"},
+                    new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.DOUBLE,
+                            SimpleType.INTEGER, SimpleType.INTEGER});
+            JARS_TYPE = new TabularType("Jars", "Jar utilization", JAR_TYPE, new String[]{"classLoaderId", "jar"});
+        } catch (OpenDataException e) {
+            // the types above are constant
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Instrumentation instrumentation;
+    private final long timeToLive;
+    private final Executor refresher;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    LooseJarStats(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        this.timeToLive = Math.max(0, Long.getLong("loosejar.jmxTtl", 60));
+        this.refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, PROJECT_NAME + "-jmx-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public TabularData getClassLoaders() {
+        return current().classLoaders;
+    }
+
+    public TabularData getJars() {
+        return current().jars;
+    }
+
+    public Date getSnapshotTime() {
+        return new Date(current().time);
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public long getRecordedClasses() {
+        ClassLoadRecorder recorder = ClassLoadRecorder.getInstance();
+        return recorder == null ? -1 : recorder.getRecordedCount();
+    }
+
+    public long getDroppedGeneratedClasses() {
+        ClassLoadRecorder recorder = ClassLoadRecorder.getInstance();
+        return recorder == null ? -1 : recorder.getDroppedCount();
+    }
+
+    public double getRecordingOverheadMillis() {
+        ClassLoadRecorder recorder = ClassLoadRecorder.getInstance();
+        return recorder == null ? -1 : recorder.getOverhead() / 1e6;
+    }
+
+    public synchronized void refresh() {
+        snapshot = takeSnapshot();
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = takeSnapshot();
+                }
+                return snapshot;
+            }
+        }
+
+        if (System.currentTimeMillis() - current.time > timeToLive * 1000 && refreshing.compareAndSet(false, true)) {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Throwable t) {
+                        log("Failed to refresh the JMX snapshot: " + t);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        }
+        return current;
+    }
+
+    private Snapshot takeSnapshot() {
+        Map<ClassLoader, List<String>> classLoaderMap = new JVMAnalyzer(instrumentation).createClassLoaderMap();
+        TabularDataSupport classLoaders = new TabularDataSupport(CLASS_LOADERS_TYPE);
+        TabularDataSupport jars = new TabularDataSupport(JARS_TYPE);
+
+        try {
+            for (ClassLoaderAnalyzer analyzer : ClassLoaderAnalyzer.analyzeAll(classLoaderMap)) {
+                String id = identity(analyzer.getClassLoader());
+                while (classLoaders.containsKey(new Object[]{id})) {
+                    id += "'"; // identity hash codes are not unique
+                }
+                int loaded = 0;
+                int total = 0;
+                for (JarArchive jar : analyzer.getJars()) {
+                    int jarLoaded = jar.getLoadedClassCount();
+                    int jarTotal = jar.getClassCount();
+                    jars.put(new CompositeDataSupport(JAR_TYPE, JAR_ITEMS,
+                            new Object[]{id, jar.getJar().getPath(), jar.getUsagePercentage(), jarLoaded, jarTotal}));
+                    loaded += jarLoaded;
+                    total += jarTotal;
+                }
+                classLoaders.put(new CompositeDataSupport(CLASS_LOADER_TYPE, CLASS_LOADER_ITEMS,
+                        new Object[]{id, analyzer.getClassLoader().getClass().getName(), analyzer.getJars().size(), loaded, total}));
+            }
+        } catch (OpenDataException e) {
+            // the values always match the types above
+            throw new IllegalStateException(e);
+        }
+        return new Snapshot(classLoaders, jars);
+    }
+
+    private static String identity(ClassLoader classLoader) {
+        return classLoader.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(classLoader));
+    }
+
+    private static final class Snapshot {
+        private final long time = System.currentTimeMillis();
+        private final TabularData classLoaders;
+        private final TabularData jars;
+
+        Snapshot(TabularData classLoaders, TabularData jars) {
+            this.classLoaders = classLoaders;
+            this.jars = jars;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import javax.management.openmbean.TabularData;
+
+import java.util.Date;
+
+/**
+ * This interface exposes the analysis results to JMX as structured data. The results come from
+ * a cached snapshot which is refreshed in the background once it gets older than its time to live.
+ *
+ * @author Kyrill Alyoshin
+ */
+public interface LooseJarStatsMBean {
+    /**
+     * Returns a row per classloader with the number of its jars and their loaded and total classes.
+     */
+    TabularData getClassLoaders();
+
+    /**
+     * Returns a row per jar with its classloader, utilization, loaded and total classes.
+     */
+    TabularData getJars();
+
+    /**
+     * Returns the time the current snapshot was taken.
+     */
+    Date getSnapshotTime();
+
+    /**
+     * Returns the number of seconds after which the snapshot is refreshed.
+     */
+    long getTimeToLive();
+
+    /**
+     * Returns the number of classes recorded so far, or -1 if loosejar is not recording class loads.
+     */
+    long getRecordedClasses();
+
+    /**
+     * Returns the number of generated classes left out of the recording because of the cap or the
+     * sampling, or -1 if loosejar is not recording class loads.
+     */
+    long getDroppedGeneratedClasses();
+
+    /**
+     * Returns the milliseconds spent recording class loads so far, or -1 if loosejar is not recording
+     * class loads.
+     */
+    double getRecordingOverheadMillis();
+
+    /**
+     * Takes a new snapshot right away.
+     */
+    void refresh();
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class finds the manifests (and thus the jars) that each classloader owns directly, as
+ * opposed to those it can merely see through its parents.
+ * <p>
+ * <code>ClassLoader.getResources()</code> returns a transitive closure over the classloader
+ * hierarchy, so the resources of the parent have to be subtracted. In a container with hundreds of
+ * classloaders sharing the same parents, enumerating the parents over and over again dominates the
+ * analysis; a resolver enumerates the resources of every classloader at most once and remembers
+ * them for as long as it lives, which is meant to be a single analysis.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ManifestResolver {
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private final Map<ClassLoader, List<String>> resources = new IdentityHashMap<ClassLoader, List<String>>();
+    private List<String> systemResources;
+
+    /**
+     * Return the manifest URLs available <em>directly</em> to the supplied classloader (i.e., no
+     * parents!) in the form of <code>jar:file:/foo/bar/baz.jar!/META-INF/MANIFEST.MF</code>.
+     */
+    synchronized List<String> getOwnResources(ClassLoader classLoader) throws IOException {
+        ClassLoader parent = classLoader.getParent();
+        return subtract(getResources(classLoader), parent != null ? getResources(parent) : getSystemResources());
+    }
+
+    private List<String> getResources(ClassLoader classLoader) throws IOException {
+        List<String> list = resources.get(classLoader);
+        if (list == null) {
+            list = toList(classLoader.getResources(MANIFEST));
+            resources.put(classLoader, list);
+        }
+        return list;
+    }
+
+    private List<String> getSystemResources() throws IOException {
+        if (systemResources == null) {
+            systemResources = toList(ClassLoader.getSystemResources(MANIFEST));
+        }
+        return systemResources;
+    }
+
+    /**
+     * Remove the parent resources from the supplied ones; it has to be done in multiset context
+     * (i.e., not set context) to preserve cardinality, but it is done in linear time.
+     */
+    static List<String> subtract(List<String> resources, List<String> parentResources) {
+        Map<String, int[]> counts = new HashMap<String, int[]>();
+        for (String url : parentResources) {
+            int[] count = counts.get(url);
+            if (count == null) {
+                counts.put(url, new int[]{1});
+            } else {
+                count[0]++;
+            }
+        }
+
+        List<String> own = new ArrayList<String>();
+        for (String url : resources) {
+            int[] count = counts.get(url);
+            if (count != null && count[0] > 0) {
+                count[0]--;
+            } else {
+                own.add(url);
+            }
+        }
+        return own;
+    }
+
+    private static List<String> toList(Enumeration<URL> enumeration) {
+        List<String> ret = new ArrayList<String>();
+        if (enumeration == null) {
+            return ret;
+        }
+
+        while (enumeration.hasMoreElements()) {
+            ret.add(enumeration.nextElement().toString());
+        }
+        return ret;
+    }
+}
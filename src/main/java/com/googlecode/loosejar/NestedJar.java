@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Support for jars nested inside other jars, as found in Spring Boot and other fat-jar layouts.
+ * A nested jar is represented by a file whose path continues past the outer jar with
+ * <code>!/</code> and the name of the entry, e.g. <code>/srv/app.jar!/BOOT-INF/lib/foo.jar</code>,
+ * the same way its URLs spell it out.
+ * <p>
+ * Nested jars are never extracted. The outer jar is mapped and a stored (uncompressed) entry,
+ * which is what Spring Boot requires for its nested jars, is read in place as a slice of the
+ * mapping. A deflated entry is inflated as a stream and only the names and sizes of its entries are kept.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class NestedJar {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "!" + File.separator;
+
+    private NestedJar() {
+    }
+
+    /**
+     * Return the outermost real file of the supplied nested jar, or <code>null</code> if the jar
+     * is not nested.
+     */
+    static File outerFile(File jar) {
+        String path = jar.getPath();
+        for (int i = path.indexOf(SEPARATOR); i > 0; i = path.indexOf(SEPARATOR, i + 1)) {
+            File outer = new File(path.substring(0, i));
+            if (outer.isFile()) {
+                return outer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the size of the supplied jar: the uncompressed size of its entry if it is nested, or
+     * the length of the file otherwise. If the entry cannot be found without inflating an enclosing
+     * jar, the length of the outer file is returned instead.
+     */
+    static long length(File jar) {
+        File outer = outerFile(jar);
+        if (outer == null) {
+            return jar.length();
+        }
+
+        try {
+            String[] entryNames = entryNames(jar, outer);
+            CentralDirectoryReader reader = CentralDirectoryReader.open(outer);
+            for (int level = 1; level < entryNames.length; level++) {
+                findEntry(reader, entryNames[level]);
+                if (level == entryNames.length - 1) {
+                    return reader.size();
+                }
+                if (reader.method() != ZipEntry.STORED) {
+                    break;
+                }
+                reader = new CentralDirectoryReader(reader.data());
+            }
+        } catch (IOException e) {
+            // the outer length will do for ordering; reading the jar reports the problem
+        }
+        return outer.length();
+    }
+
+    /**
+     * Return all the classes in the supplied nested jar along with their sizes.
+     */
+    static ClassEntries readClasses(File jar) throws IOException {
+        File outer = outerFile(jar);
+        if (outer == null) {
+            throw new ZipException("not a nested jar");
+        }
+
+        String[] entryNames = entryNames(jar, outer);
+        CentralDirectoryReader reader = CentralDirectoryReader.open(outer);
+        for (int level = 1; level < entryNames.length; level++) {
+            findEntry(reader, entryNames[level]);
+            ByteBuffer data = reader.data();
+
+            boolean last = level == entryNames.length - 1;
+            if (reader.method() == ZipEntry.STORED) {
+                reader = new CentralDirectoryReader(data);
+            } else if (reader.method() != ZipEntry.DEFLATED) {
+                throw new ZipException("unsupported compression method " + reader.method());
+            } else if (last) {
+                return streamClasses(data);
+            } else {
+                // a deflated jar inside a nested jar; rare enough to be inflated into memory
+                reader = new CentralDirectoryReader(inflate(data, reader.size()));
+            }
+        }
+        return reader.readClasses();
+    }
+
+    /**
+     * Return the names of the entries leading to the supplied nested jar, starting at index 1.
+     */
+    private static String[] entryNames(File jar, File outer) {
+        // every level of nesting is introduced by '!/'
+        return jar.getPath().substring(outer.getPath().length()).replace(File.separatorChar, '/').split("!/");
+    }
+
+    private static void findEntry(CentralDirectoryReader reader, String entryName) throws ZipException {
+        byte[] name = entryName.getBytes(UTF_8);
+        while (reader.next()) {
+            if (reader.nameEquals(name)) {
+                return;
+            }
+        }
+        throw new ZipException("entry [" + entryName + "] not found");
+    }
+
+    private static ClassEntries streamClasses(ByteBuffer deflated) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            ZipInputStream in = new ZipInputStream(new InflaterInputStream(new BufferInputStream(deflated), inflater));
+            List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                if (entry.getName().endsWith(".class")) {
+                    entries.add(entry);
+                }
+            }
+
+            // the sizes of an entry are only known once the stream has moved past it
+            ClassEntries classes = new ClassEntries();
+            for (ZipEntry entry : entries) {
+                String name = entry.getName();
+                classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'), entry.getSize(),
+                        entry.getCompressedSize());
+            }
+            return classes;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer deflated, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new ZipException("nested archive is too large");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            InputStream in = new InflaterInputStream(new BufferInputStream(deflated), inflater);
+            byte[] bytes = new byte[(int) size];
+            int read = 0;
+            for (int n; read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) > 0; ) {
+                read += n;
+            }
+            if (read != bytes.length) {
+                throw new ZipException("nested archive is truncated");
+            }
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * An input stream over a buffer, so the mapped data does not have to be copied.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * The static reference graph of the classes on a classpath, used to tell the classes which have
+ * not been loaded but could be on some code path from those which can never be loaded at all.
+ * Classes are the nodes of the graph, identified by their {@link ClassNameDictionary} identifiers,
+ * and a class has an edge to each class it refers to (see {@link ClassReferences}).
+ * <p>
+ * The graph is never built in full: it is walked breadth first from the loaded classes, and only
+ * the class files of the classes reached are read, straight from the mapped jars and without being
+ * defined. The class files of each level of the walk are parsed in parallel on the pool of the
+ * {@link JarScanner}. A class belongs to the first jar containing it, looking at the jars of the
+ * parent classloaders before those of the classloader itself. Classes in nested jars are taken as
+ * having no references, since their class files are not read.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ReferenceGraph {
+    private static final int CLASSES_PER_TASK = 256;
+
+    private final List<JarArchive> jars;
+    private final int firstOwnJar;
+    private final Source[] sources;
+    private final int[] owners;
+    private final boolean bounded;
+    private final long deadline;
+
+    /**
+     * @param jars        the jars of the ancestors of a classloader, the farthest first, followed by
+     *                    its own jars, in the classpath order
+     * @param firstOwnJar the index of the first of the classloader's own jars
+     * @param sources     the class files of the jars, shared between the graphs of all the
+     *                    classloaders being analyzed
+     */
+    private ReferenceGraph(List<JarArchive> jars, int firstOwnJar, Map<File, Source> sources,
+                           boolean bounded, long deadline) {
+        this.jars = jars;
+        this.firstOwnJar = firstOwnJar;
+        this.bounded = bounded;
+        this.deadline = deadline;
+        this.sources = new Source[jars.size()];
+        for (int i = 0; i < this.sources.length; i++) {
+            File location = jars.get(i).getJar();
+            Source source = sources.get(location);
+            if (source == null) {
+                source = new Source(location);
+                sources.put(location, source);
+            }
+            this.sources[i] = source;
+        }
+
+        // the identifiers are dense, so the owner of every class fits into a single array
+        int size = 0;
+        for (JarArchive jar : jars) {
+            int[] ids = jar.getClassIds();
+            if (ids.length > 0) {
+                size = Math.max(size, ids[ids.length - 1] + 1);
+            }
+        }
+        owners = new int[size];
+        Arrays.fill(owners, -1);
+        for (int i = jars.size() - 1; i >= 0; i--) {
+            for (int id : jars.get(i).getClassIds()) {
+                owners[id] = i;
+            }
+        }
+    }
+
+    /**
+     * Determine which classes of the supplied jars, in the classpath order of a classloader, can
+     * be reached from the classes loaded from them, and mark them in each jar (see
+     * {@link JarArchive#setReachableClasses(BitSet)}). The classes of the parents of the
+     * classloader are not taken into account.
+     */
+    static void markReachable(List<JarArchive> jars) {
+        ReferenceGraph graph = new ReferenceGraph(jars, 0, new HashMap<File, Source>(), false, 0);
+        BitSet reached = graph.walk();
+        for (int i = 0; i < jars.size(); i++) {
+            jars.get(i).setReachableClasses(graph.owned(i, reached));
+        }
+    }
+
+    /**
+     * Determine which classes of the jars of all the supplied classloaders can be reached from the
+     * loaded classes, and mark them in each jar. A reference is resolved the way a classloader
+     * delegates to its parents, so a class of a parent's jar is reachable when a class of any of
+     * its children refers to it. Classloaders which delegate otherwise (to their siblings, say)
+     * are not followed, nor are parents which are not among the supplied classloaders.
+     */
+    static void markAllReachable(List<ClassLoaderAnalyzer> analyzers) {
+        markAllReachable(analyzers, false, 0);
+    }
+
+    /**
+     * Same as {@link #markAllReachable(List)}, but stops when the deadline (in terms of
+     * {@link System#nanoTime()}) passes; the jars which are left without a complete walk have no
+     * reachable classes marked then.
+     */
+    static void markAllReachable(List<ClassLoaderAnalyzer> analyzers, long deadline) {
+        markAllReachable(analyzers, true, deadline);
+    }
+
+    private static void markAllReachable(List<ClassLoaderAnalyzer> analyzers, boolean bounded, long deadline) {
+        Map<ClassLoader, List<JarArchive>> jarsByLoader = new IdentityHashMap<ClassLoader, List<JarArchive>>();
+        for (ClassLoaderAnalyzer analyzer : analyzers) {
+            if (!analyzer.isSkipped()) {
+                jarsByLoader.put(analyzer.getClassLoader(), analyzer.getJars());
+            }
+        }
+
+        Map<File, Source> sources = new HashMap<File, Source>();
+        Map<JarArchive, BitSet> reachable = new IdentityHashMap<JarArchive, BitSet>();
+        Set<JarArchive> unfinished = Collections.newSetFromMap(new IdentityHashMap<JarArchive, Boolean>());
+        for (ClassLoaderAnalyzer analyzer : analyzers) {
+            if (analyzer.isSkipped()) {
+                continue;
+            }
+            List<JarArchive> jars = new ArrayList<JarArchive>();
+            for (ClassLoader parent = analyzer.getClassLoader().getParent(); parent != null;
+                 parent = parent.getParent()) {
+                List<JarArchive> parentJars = jarsByLoader.get(parent);
+                if (parentJars != null) {
+                    jars.addAll(0, parentJars);
+                }
+            }
+            int firstOwnJar = jars.size();
+            jars.addAll(analyzer.getJars());
+
+            ReferenceGraph graph = null;
+            BitSet reached = null;
+            if (!bounded || System.nanoTime() - deadline <= 0) {
+                graph = new ReferenceGraph(jars, firstOwnJar, sources, bounded, deadline);
+                reached = graph.walk();
+            }
+            if (reached == null) {
+                unfinished.addAll(jars);
+                continue;
+            }
+            for (int i = 0; i < jars.size(); i++) {
+                BitSet owned = graph.owned(i, reached);
+                BitSet jarReachable = reachable.get(jars.get(i));
+                if (jarReachable == null) {
+                    reachable.put(jars.get(i), owned);
+                } else {
+                    jarReachable.or(owned);
+                }
+            }
+        }
+
+        for (ClassLoaderAnalyzer analyzer : analyzers) {
+            for (JarArchive jar : analyzer.getJars()) {
+                BitSet jarReachable = reachable.get(jar);
+                if (!unfinished.contains(jar) && jarReachable != null) {
+                    jar.setReachableClasses(jarReachable);
+                }
+            }
+        }
+        if (!unfinished.isEmpty()) {
+            log(String.format("The deadline has passed; the reachability of %d jar(s) has not been determined.",
+                    unfinished.size()));
+        }
+    }
+
+    /**
+     * Walk the graph from the loaded classes of the classloader's own jars and return the set of
+     * the classes reached, or <code>null</code> if the deadline passed first. The classes loaded
+     * from the jars of the ancestors are taken as reached without being walked, since the walks of
+     * the ancestors themselves start from them.
+     */
+    private BitSet walk() {
+        BitSet reached = new BitSet(owners.length);
+        IntBuffer level = new IntBuffer();
+        for (int i = 0; i < jars.size(); i++) {
+            for (int id : jars.get(i).getLoadedClassIds()) {
+                if (owners[id] >= 0 && !reached.get(id)) {
+                    reached.set(id);
+                    if (i >= firstOwnJar) {
+                        level.add(id);
+                    }
+                }
+            }
+        }
+
+        while (level.size > 0) {
+            if (bounded && System.nanoTime() - deadline > 0) {
+                return null;
+            }
+            List<int[]> levelReferences = references(level.toArray());
+            if (levelReferences == null) {
+                return null;
+            }
+            IntBuffer next = new IntBuffer();
+            for (int[] references : levelReferences) {
+                for (int id : references) {
+                    if (id < owners.length && owners[id] >= 0 && !reached.get(id)) {
+                        reached.set(id);
+                        next.add(id);
+                    }
+                }
+            }
+            level = next;
+        }
+        return reached;
+    }
+
+    /**
+     * Return the classes of the supplied set which belong to the jar of the supplied index.
+     */
+    private BitSet owned(int jar, BitSet classes) {
+        BitSet owned = new BitSet(owners.length);
+        for (int id : jars.get(jar).getClassIds()) {
+            if (owners[id] == jar && classes.get(id)) {
+                owned.set(id);
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Return the references of each of the supplied classes, reading the class files in parallel,
+     * or <code>null</code> if the deadline passes first.
+     */
+    private List<int[]> references(int[] classes) {
+        List<int[]> references = new ArrayList<int[]>(classes.length);
+        if (classes.length <= CLASSES_PER_TASK) {
+            for (int id : classes) {
+                references.add(references(id));
+            }
+            return references;
+        }
+
+        List<Future<List<int[]>>> futures = new ArrayList<Future<List<int[]>>>();
+        for (int start = 0; start < classes.length; start += CLASSES_PER_TASK) {
+            final int[] batch = Arrays.copyOfRange(classes, start, Math.min(classes.length, start + CLASSES_PER_TASK));
+            futures.add(JarScanner.pool().submit(new Callable<List<int[]>>() {
+                public List<int[]> call() {
+                    List<int[]> list = new ArrayList<int[]>(batch.length);
+                    for (int id : batch) {
+                        list.add(references(id));
+                    }
+                    return list;
+                }
+            }));
+        }
+        for (Future<List<int[]>> future : futures) {
+            try {
+                if (bounded) {
+                    references.addAll(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } else {
+                    references.addAll(future.get());
+                }
+            } catch (TimeoutException e) {
+                for (Future<List<int[]>> f : futures) {
+                    f.cancel(true);
+                }
+                return null;
+            } catch (ExecutionException e) {
+                log("IGNORED: class references. " + e.getCause());
+            } catch (InterruptedException e) {
+                for (Future<List<int[]>> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                log("Reference graph walk has been interrupted; the results are incomplete.");
+                break;
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Return the identifiers of the classes the supplied class refers to; classes which are not in
+     * the dictionary, such as the classes of the JDK, are left out.
+     */
+    private int[] references(int id) {
+        ClassNameDictionary dictionary = ClassNameDictionary.getInstance();
+        String className = dictionary.name(id);
+        Source source = sources[owners[id]];
+        List<String> names = new ArrayList<String>();
+        try {
+            ByteBuffer classFile = source.read(className);
+            if (classFile == null) {
+                return new int[0];
+            }
+            ClassReferences.read(classFile, names);
+        } catch (IOException e) {
+            log("IGNORED: [" + className + "] in [" + source.location + "]. " + e);
+            return new int[0];
+        }
+
+        int[] ids = new int[names.size()];
+        int count = 0;
+        for (String name : names) {
+            int reference = dictionary.lookup(name);
+            if (reference >= 0) {
+                ids[count++] = reference;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * A growable array of class identifiers.
+     */
+    private static final class IntBuffer {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * The class files of a single jar or class directory, opened when first needed.
+     */
+    private static final class Source {
+        private final File location;
+        private JarClassFiles classFiles;
+
+        Source(File location) {
+            this.location = location;
+        }
+
+        ByteBuffer read(String className) throws IOException {
+            if (location.isDirectory()) {
+                File classFile = new File(location, className.replace('.', File.separatorChar) + ".class");
+                return classFile.isFile() ? ByteBuffer.wrap(Files.readAllBytes(classFile.toPath())) : null;
+            }
+            if (NestedJar.outerFile(location) != null) {
+                return null;
+            }
+            return open().read(className);
+        }
+
+        private synchronized JarClassFiles open() throws IOException {
+            if (classFiles == null) {
+                classFiles = new JarClassFiles(location);
+            }
+            return classFiles;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.googlecode.loosejar.Constants.*;
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * Merges the usage snapshots of many JVMs, such as every node running a service over several
+ * days, into a single report: a class of a jar counts as loaded if any of the snapshots has it
+ * loaded. The result is either a CSV utilization report or another usage snapshot, which can in
+ * turn be fed to the {@link JarMinimizer}.
+ * <p>
+ * Snapshots are sorted by jar and by class, so they are merged as streams, one line of each
+ * snapshot in memory at a time. At most {@link #MAX_OPEN_FILES} snapshots are open at once; more
+ * than that are merged in batches into temporary snapshots, which are then merged in turn. Binary
+ * snapshots can only be decoded in full, so each of them is first turned into a temporary usage
+ * snapshot on its own rather than being held in memory alongside the others. The order of every
+ * snapshot is checked as it is read, and one which is not sorted fails the merge, since it would
+ * silently produce a wrong result.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class SnapshotMerger {
+    static final int MAX_OPEN_FILES = 64;
+
+    private static final Comparator<Cursor> BY_JAR = new Comparator<Cursor>() {
+        public int compare(Cursor c1, Cursor c2) {
+            // the order of the TreeMap the snapshot was written from
+            return c1.jar.compareTo(c2.jar);
+        }
+    };
+
+    private static final Comparator<Cursor> BY_CLASS = new Comparator<Cursor>() {
+        public int compare(Cursor c1, Cursor c2) {
+            return c1.className.compareTo(c2.className);
+        }
+    };
+
+    private final boolean usage;
+
+    /**
+     * @param usage <code>true</code> to write a usage snapshot rather than a CSV report
+     */
+    SnapshotMerger(boolean usage) {
+        this.usage = usage;
+    }
+
+    /**
+     * Merge the supplied snapshots into the supplied output file. Files which are not usage
+     * snapshots are ignored.
+     */
+    void merge(List<File> snapshots, File output) throws IOException {
+        List<File> temporary = new ArrayList<File>();
+        try {
+            List<File> streams = new ArrayList<File>(snapshots.size());
+            for (File snapshot : snapshots) {
+                if (isBinary(snapshot)) {
+                    File converted = File.createTempFile(PROJECT_NAME, ".usage");
+                    temporary.add(converted);
+                    merge(Collections.singletonList(snapshot), converted, true);
+                    streams.add(converted);
+                } else {
+                    streams.add(snapshot);
+                }
+            }
+            snapshots = streams;
+
+            while (snapshots.size() > MAX_OPEN_FILES) {
+                List<File> merged = new ArrayList<File>();
+                for (int start = 0; start < snapshots.size(); start += MAX_OPEN_FILES) {
+                    File batch = File.createTempFile(PROJECT_NAME, ".usage");
+                    temporary.add(batch);
+                    merge(snapshots.subList(start, Math.min(snapshots.size(), start + MAX_OPEN_FILES)), batch, true);
+                    merged.add(batch);
+                }
+                snapshots = merged;
+            }
+            merge(snapshots, output, usage);
+        } finally {
+            for (File file : temporary) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isBinary(File snapshot) {
+        try {
+            return BinarySnapshotReader.isBinary(snapshot);
+        } catch (IOException e) {
+            return false; // ignored when it is opened for merging
+        }
+    }
+
+    private static void merge(List<File> snapshots, File output, boolean usage) throws IOException {
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output)));
+        try {
+            PriorityQueue<Cursor> jars = new PriorityQueue<Cursor>(Math.max(1, snapshots.size()), BY_JAR);
+            for (File snapshot : snapshots) {
+                Cursor cursor;
+                try {
+                    cursor = new Cursor(new UsageSnapshotReader(snapshot));
+                } catch (IOException e) {
+                    log("IGNORED: [" + snapshot + "]. " + e.getMessage());
+                    continue;
+                }
+                cursors.add(cursor);
+                if (cursor.nextJar()) {
+                    jars.add(cursor);
+                }
+            }
+
+            out.write(usage ? "# loosejar usage 1\n"
+                    : "\"Jar\",\"Utilization\",\"Loaded Classes\",\"Total Classes\"\n");
+
+            List<Cursor> sameJar = new ArrayList<Cursor>();
+            PriorityQueue<Cursor> classes = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), BY_CLASS);
+            while (!jars.isEmpty()) {
+                sameJar.clear();
+                File jar = jars.peek().jar;
+                int totalClasses = 0;
+                while (!jars.isEmpty() && jars.peek().jar.equals(jar)) {
+                    Cursor cursor = jars.poll();
+                    sameJar.add(cursor);
+                    // a jar may have been updated between the snapshots
+                    totalClasses = Math.max(totalClasses, cursor.reader.getTotalClasses());
+                    if (cursor.nextClass()) {
+                        classes.add(cursor);
+                    }
+                }
+
+                if (usage) {
+                    out.write("jar " + totalClasses + " " + jar.getPath() + "\n");
+                }
+                int loadedClasses = 0;
+                String last = null;
+                while (!classes.isEmpty()) {
+                    Cursor cursor = classes.poll();
+                    if (!cursor.className.equals(last)) {
+                        last = cursor.className;
+                        loadedClasses++;
+                        if (usage) {
+                            out.write("  " + last + "\n");
+                        }
+                    }
+                    if (cursor.nextClass()) {
+                        classes.add(cursor);
+                    }
+                }
+                if (!usage) {
+                    double utilization = totalClasses == 0 ? 0 : 100.0 * loadedClasses / totalClasses;
+                    out.write(String.format("\"%s\",\"%.2f%%\",\"%d\",\"%d\"\n",
+                            jar.getPath().replace("\"", "\"\""), utilization, loadedClasses, totalClasses));
+                }
+
+                for (Cursor cursor : sameJar) {
+                    if (cursor.nextJar()) {
+                        jars.add(cursor);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+            for (Cursor cursor : cursors) {
+                cursor.reader.close();
+            }
+        }
+    }
+
+    /**
+     * The current jar and class of a snapshot being merged.
+     */
+    private static final class Cursor {
+        private final UsageSnapshotReader reader;
+        private File jar;
+        private String className;
+
+        Cursor(UsageSnapshotReader reader) {
+            this.reader = reader;
+        }
+
+        boolean nextJar() throws IOException {
+            jar = reader.nextJar() ? new File(reader.getJar()) : null;
+            return jar != null;
+        }
+
+        boolean nextClass() throws IOException {
+            className = reader.nextClass();
+            return className != null;
+        }
+    }
+}
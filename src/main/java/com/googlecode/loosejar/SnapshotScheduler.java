@@ -0,0 +1,329 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.googlecode.loosejar.output.BinarySummarizer;
+import com.googlecode.loosejar.output.Summarizer;
+import com.googlecode.loosejar.output.SummarizerFactory;
+import com.googlecode.loosejar.output.VerbalSummarizer;
+
+import static com.googlecode.loosejar.Constants.*;
+import static com.googlecode.loosejar.Logger.*;
+
+/**
+ * Takes periodic snapshots of the analysis on a background daemon thread, so the results survive
+ * a JVM that never gets to run its shutdown hooks.
+ * <p>
+ * In the verbal format the first snapshot is a full report; every following one only lists, per
+ * jar, the classes that have been loaded since the previous snapshot along with the change in
+ * utilization. Those snapshots are built from the {@link ClassLoadRecorder}, so each one only
+ * processes the classes recorded since the previous one, and jars are scanned once per classloader,
+ * when the classloader is first seen. They are appended to the file given by the
+ * <code>loosejar.snapshotFile</code> system property, or written to the console if it is not set.
+ * <p>
+ * The other formats are meant for tools, which could not read a verbal delta, nor several reports
+ * appended to each other. Every snapshot is therefore a full report in the configured format,
+ * and it replaces the previous one in the snapshot file, so the file always holds exactly one
+ * complete report.
+ *
+ * @author Kyrill Alyoshin
+ */
+class SnapshotScheduler implements Runnable {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    // the states must not refer to their classloaders, or they would never be collected
+    private final Map<ClassLoader, LoaderState> states = new WeakHashMap<ClassLoader, LoaderState>();
+    private final ClassLoadRecorder recorder;
+    private int snapshots;
+
+    SnapshotScheduler(ClassLoadRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Parse a snapshot interval returning it in seconds, or <code>0</code> if it is missing or
+     * malformed. The interval is a number of minutes, unless it ends with <code>s</code>,
+     * <code>m</code> or <code>h</code>.
+     */
+    static long parseInterval(String interval) {
+        if (interval == null || interval.trim().equals("")) {
+            return 0;
+        }
+
+        String value = interval.trim().toLowerCase();
+        long unit = 60;
+        if (value.endsWith("s")) {
+            unit = 1;
+        } else if (value.endsWith("h")) {
+            unit = 60 * 60;
+        }
+        if (Character.isLetter(value.charAt(value.length() - 1))) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * unit);
+        } catch (NumberFormatException e) {
+            log("IGNORED: snapshot interval [" + interval + "] is not a number.");
+            return 0;
+        }
+    }
+
+    /**
+     * Start taking snapshots every <code>interval</code> seconds; the recorder must be installed.
+     */
+    static void schedule(long interval) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, PROJECT_NAME + "-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new SnapshotScheduler(ClassLoadRecorder.getInstance()), interval, interval,
+                TimeUnit.SECONDS);
+    }
+
+    public void run() {
+        try {
+            takeSnapshot();
+        } catch (Throwable t) {
+            // an exception would cancel all the following snapshots
+            log("Failed to take a snapshot: " + t);
+        }
+    }
+
+    void takeSnapshot() throws IOException {
+        if (recorder == null) {
+            return;
+        }
+
+        Summarizer summarizer = new SummarizerFactory().getSummarizer();
+        if (!(summarizer instanceof VerbalSummarizer)) {
+            writeFullReport(summarizer);
+            return;
+        }
+
+        Writer out = openOutput();
+        try {
+            boolean full = ++snapshots == 1;
+            out.write("[" + PROJECT_NAME + " snapshot #" + snapshots + " at " + new Date()
+                    + (full ? " - full report]" : " - changes since the previous snapshot]") + "\n\n");
+
+            List<ClassLoaderAnalyzer> analyzers = new ArrayList<ClassLoaderAnalyzer>();
+            boolean changed = false;
+            ManifestResolver resolver = new ManifestResolver();
+            for (ClassLoader loader : recorder.getClassLoaders()) {
+                LoaderState state = states.get(loader);
+                if (state == null) {
+                    ClassLoaderAnalyzer analyzer = new ClassLoaderAnalyzer(loader, Collections.<String>emptyList(),
+                            resolver);
+                    state = new LoaderState(analyzer.getJars());
+                    states.put(loader, state);
+                    analyzers.add(analyzer);
+                }
+
+                List<String> classNames = new ArrayList<String>();
+                List<String> locations = new ArrayList<String>();
+                state.recorded = recorder.getRecordedSince(loader, state.recorded, classNames, locations);
+                List<JarDelta> deltas = state.apply(classNames, locations);
+
+                if (!full && !deltas.isEmpty()) {
+                    writeDeltas(loader, deltas, out);
+                    changed = true;
+                }
+            }
+
+            if (full) {
+                summarizer.summarize(analyzers, out);
+            } else if (!changed) {
+                out.write("No changes since the previous snapshot.\n\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeDeltas(ClassLoader loader, List<JarDelta> deltas, Writer out) throws IOException {
+        out.write("Summary for [" + loader.getClass().getName() + "] classloader:\n\n");
+        ClassNameDictionary dictionary = ClassNameDictionary.getInstance();
+        for (JarDelta delta : deltas) {
+            JarArchive jar = delta.jar;
+            out.write("    Jar: " + jar.getJar() + '\n');
+            out.write(String.format("    Utilization: %.2f%% (was %.2f%%) - loaded %d of %d classes.\n",
+                    jar.getUsagePercentage(), delta.previousUsage, jar.getLoadedClassCount(),
+                    jar.getClassCount()));
+            for (int id : delta.added) {
+                out.write("        + " + dictionary.name(id) + '\n');
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private void writeFullReport(Summarizer summarizer) throws IOException {
+        String snapshotFile = System.getProperty("loosejar.snapshotFile");
+        if (snapshotFile == null || snapshotFile.equals("")) {
+            Writer out = openOutput();
+            try {
+                summarizer.summarize(recorder.snapshot(), out);
+            } finally {
+                out.close();
+            }
+            return;
+        }
+
+        // write the report next to the file and move it into place, so the file is never partial
+        File file = new File(snapshotFile).getAbsoluteFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                if (summarizer instanceof BinarySummarizer) {
+                    ((BinarySummarizer) summarizer).summarize(recorder.snapshot(), stream);
+                } else {
+                    Writer out = new OutputStreamWriter(stream);
+                    summarizer.summarize(recorder.snapshot(), out);
+                    out.flush();
+                }
+            } finally {
+                stream.close();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    private Writer openOutput() throws IOException {
+        String snapshotFile = System.getProperty("loosejar.snapshotFile");
+        if (snapshotFile == null || snapshotFile.equals("")) {
+            return new BufferedWriter(new OutputStreamWriter(System.out)) {
+                @Override
+                public void close() throws IOException {
+                    // System.out must not be closed
+                    write(LINE_SEPARATOR);
+                    flush();
+                }
+            };
+        }
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(snapshotFile, true)));
+    }
+
+    /**
+     * The jars of a single classloader and the number of its recorded classes processed so far.
+     */
+    private static final class LoaderState {
+        private final Map<File, JarArchive> jars = new HashMap<File, JarArchive>();
+        private int recorded;
+
+        LoaderState(List<JarArchive> jars) {
+            for (JarArchive jar : jars) {
+                this.jars.put(jar.getJar(), jar);
+            }
+        }
+
+        /**
+         * Mark the supplied classes as loaded returning the jars that have changed.
+         */
+        List<JarDelta> apply(List<String> classNames, List<String> locations) {
+            Map<String, List<String>> byLocation = new HashMap<String, List<String>>();
+            for (int i = 0; i < classNames.size(); i++) {
+                String location = locations.get(i);
+                if (location == null) {
+                    continue;
+                }
+                List<String> names = byLocation.get(location);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    byLocation.put(location, names);
+                }
+                names.add(classNames.get(i));
+            }
+
+            ClassNameDictionary dictionary = ClassNameDictionary.getInstance();
+            List<JarDelta> deltas = new ArrayList<JarDelta>();
+            for (Map.Entry<String, List<String>> entry : byLocation.entrySet()) {
+                File file = ClassLoaderAnalyzer.toFile(entry.getKey());
+                JarArchive jar = file == null ? null : jars.get(file);
+                if (jar == null) {
+                    continue;
+                }
+
+                int[] ids = new int[entry.getValue().size()];
+                int count = 0;
+                for (String className : entry.getValue()) {
+                    int id = dictionary.lookup(className);
+                    if (id >= 0) {
+                        ids[count++] = id;
+                    }
+                }
+                ids = Arrays.copyOf(ids, count);
+                Arrays.sort(ids);
+
+                double previousUsage = jar.getUsagePercentage();
+                int[] added = jar.addLoadedClasses(ids);
+                if (added.length > 0) {
+                    deltas.add(new JarDelta(jar, previousUsage, added));
+                }
+            }
+            return deltas;
+        }
+    }
+
+    private static final class JarDelta {
+        private final JarArchive jar;
+        private final double previousUsage;
+        private final int[] added;
+
+        JarDelta(JarArchive jar, double previousUsage, int[] added) {
+            this.jar = jar;
+            this.previousUsage = previousUsage;
+            this.added = added;
+        }
+    }
+}
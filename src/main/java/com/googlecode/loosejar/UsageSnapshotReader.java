@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A streaming reader of the usage snapshots written by the <code>usage</code> output format (see
+ * {@link com.googlecode.loosejar.output.UsageSummarizer}). The snapshot is read one line at a
+ * time, jar after jar, and the classes of a jar come in sorted order; nothing is held in memory
+ * beyond the current line. The order is checked as the snapshot is read, since the snapshots are
+ * merged as sorted streams: a jar or a class which is out of order or repeated is an error.
+ * Snapshots are read in the default encoding, the one they are written in.
+ * <p>
+ * Binary snapshots (see {@link BinarySnapshotReader}) are read as well; being small, they are
+ * decoded in full and then gone through in the same order.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class UsageSnapshotReader implements Closeable {
+    private static final String HEADER = "# loosejar usage ";
+    private static final String JAR_PREFIX = "jar ";
+    private static final String CLASS_PREFIX = "  ";
+
+    private final File snapshot;
+    private final BufferedReader in;
+    private String line;
+    private int lineNumber;
+
+    // a binary snapshot
+    private final Iterator<Map.Entry<File, BinarySnapshotReader.Usage>> binaryJars;
+    private Iterator<String> binaryClasses;
+
+    private String jar;
+    private int totalClasses;
+    private File lastJar;
+    private String lastClass;
+
+    UsageSnapshotReader(File snapshot) throws IOException {
+        this.snapshot = snapshot;
+        if (BinarySnapshotReader.isBinary(snapshot)) {
+            this.in = null;
+            this.binaryJars = BinarySnapshotReader.read(snapshot).entrySet().iterator();
+            return;
+        }
+        this.binaryJars = null;
+        this.in = new BufferedReader(new InputStreamReader(new FileInputStream(snapshot)));
+        readLine();
+        if (line == null || !line.startsWith(HEADER)) {
+            in.close();
+            throw new IOException("[" + snapshot + "] is not a " + Constants.PROJECT_NAME + " usage snapshot");
+        }
+        readLine();
+    }
+
+    /**
+     * Read the entire supplied snapshot into a map of jars to their loaded classes.
+     */
+    static Map<File, Set<String>> read(File snapshot) throws IOException {
+        Map<File, Set<String>> jars = new TreeMap<File, Set<String>>();
+        UsageSnapshotReader reader = new UsageSnapshotReader(snapshot);
+        try {
+            while (reader.nextJar()) {
+                Set<String> classes = new TreeSet<String>();
+                for (String className; (className = reader.nextClass()) != null; ) {
+                    classes.add(className);
+                }
+                jars.put(new File(reader.getJar()), classes);
+            }
+        } finally {
+            reader.close();
+        }
+        return jars;
+    }
+
+    /**
+     * Advance to the next jar, skipping whatever is left of the classes of the current one, and
+     * return <code>false</code> when there are no more jars.
+     */
+    boolean nextJar() throws IOException {
+        if (binaryJars != null) {
+            if (!binaryJars.hasNext()) {
+                jar = null;
+                return false;
+            }
+            Map.Entry<File, BinarySnapshotReader.Usage> entry = binaryJars.next();
+            jar = entry.getKey().getPath();
+            totalClasses = entry.getValue().getTotalClasses();
+            binaryClasses = entry.getValue().getLoadedClasses().iterator();
+            return true;
+        }
+
+        while (line != null && !line.startsWith(JAR_PREFIX)) {
+            readLine();
+        }
+        if (line == null) {
+            jar = null;
+            return false;
+        }
+
+        int space = line.indexOf(' ', JAR_PREFIX.length());
+        try {
+            if (space < 0) {
+                throw new NumberFormatException();
+            }
+            totalClasses = Integer.parseInt(line.substring(JAR_PREFIX.length(), space));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed jar line " + lineNumber + " of [" + snapshot + "]: " + line);
+        }
+        jar = line.substring(space + 1);
+        File file = new File(jar);
+        if (lastJar != null && file.compareTo(lastJar) <= 0) {
+            throw new IOException("Jar line " + lineNumber + " of [" + snapshot + "] is "
+                    + (file.equals(lastJar) ? "repeated" : "out of order") + ": " + line);
+        }
+        lastJar = file;
+        lastClass = null;
+        readLine();
+        return true;
+    }
+
+    /**
+     * Return the path of the current jar.
+     */
+    String getJar() {
+        return jar;
+    }
+
+    /**
+     * Return the total number of classes in the current jar.
+     */
+    int getTotalClasses() {
+        return totalClasses;
+    }
+
+    /**
+     * Return the next loaded class of the current jar, or <code>null</code> when there are no more.
+     */
+    String nextClass() throws IOException {
+        if (binaryJars != null) {
+            return binaryClasses != null && binaryClasses.hasNext() ? binaryClasses.next() : null;
+        }
+        if (line == null || !line.startsWith(CLASS_PREFIX)) {
+            return null;
+        }
+        String className = line.substring(CLASS_PREFIX.length());
+        if (lastClass != null && className.compareTo(lastClass) <= 0) {
+            throw new IOException("Class line " + lineNumber + " of [" + snapshot + "] is "
+                    + (className.equals(lastClass) ? "repeated" : "out of order") + ": " + line);
+        }
+        lastClass = className;
+        readLine();
+        return className;
+    }
+
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private void readLine() throws IOException {
+        do {
+            line = in.readLine();
+            lineNumber++;
+        } while (line != null && (line.length() == 0 || line.startsWith("#") && lineNumber > 1));
+    }
+}
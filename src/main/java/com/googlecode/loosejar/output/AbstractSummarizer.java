@@ -0,0 +1,113 @@
+package com.googlecode.loosejar.output;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.loosejar.ClassLoaderAnalyzer;
+import com.googlecode.loosejar.JarArchive;
+
+/**
+ * Base class for summarizers which stream their output one classloader at a time. The
+ * <code>String</code> form of {@link #summarize(Map)} is a thin adapter over the streaming one.
+ * <p>
+ * The jars of each classloader are listed in the classpath order, or by the bytes that would be
+ * saved by removing their unused classes (largest first) if the <code>loosejar.sort</code> system
+ * property is set to <code>reclaimable</code>.
+ */
+public abstract class AbstractSummarizer implements Summarizer {
+
+    public String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            summarize(classLoaderToClassListMap, builder);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    public void summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap, Appendable out)
+            throws IOException {
+        summarize(ClassLoaderAnalyzer.analyzeAll(classLoaderToClassListMap), out);
+    }
+
+    public void summarize(Iterable<ClassLoaderAnalyzer> analyzers, Appendable out) throws IOException {
+        writeHeader(out);
+        boolean byReclaimableSize = "reclaimable".equalsIgnoreCase(System.getProperty("loosejar.sort"));
+        int skipped = 0;
+        int skippedClassLoaders = 0;
+        for (ClassLoaderAnalyzer classLoaderAnalyzer : analyzers) {
+            if (classLoaderAnalyzer.isSkipped()) {
+                writeSkippedClassLoader(classLoaderAnalyzer.getClassLoader(), out);
+                skippedClassLoaders++;
+                continue;
+            }
+            List<JarArchive> jars = classLoaderAnalyzer.getJars();
+            if (byReclaimableSize) {
+                jars = sortByReclaimableSize(jars);
+            }
+            writeSummaryForClassloader(classLoaderAnalyzer.getClassLoader(), jars, out);
+            List<File> skippedJars = classLoaderAnalyzer.getSkippedJars();
+            if (!skippedJars.isEmpty()) {
+                writeSkippedJars(classLoaderAnalyzer.getClassLoader(), skippedJars, out);
+                skipped += skippedJars.size();
+            }
+            if (out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        }
+        if (skipped > 0 || skippedClassLoaders > 0) {
+            writePartialNotice(skipped, skippedClassLoaders, out);
+        }
+        writeFooter(out);
+    }
+
+    private static List<JarArchive> sortByReclaimableSize(List<JarArchive> jars) {
+        List<JarArchive> sorted = new ArrayList<JarArchive>(jars);
+        Collections.sort(sorted, new Comparator<JarArchive>() {
+            public int compare(JarArchive j1, JarArchive j2) {
+                long r1 = j1.getReclaimableSize();
+                long r2 = j2.getReclaimableSize();
+                return r1 > r2 ? -1 : (r1 == r2 ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    protected void writeHeader(Appendable out) throws IOException {
+    }
+
+    protected abstract void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, Appendable out)
+            throws IOException;
+
+    /**
+     * Writes the jars of a classloader which have not been analyzed in time.
+     */
+    protected void writeSkippedJars(ClassLoader classLoader, List<File> jars, Appendable out) throws IOException {
+    }
+
+    /**
+     * Writes a classloader which has not been analyzed at all, because its jars could not be found
+     * in time.
+     */
+    protected void writeSkippedClassLoader(ClassLoader classLoader, Appendable out) throws IOException {
+    }
+
+    /**
+     * Marks the summary as partial, after the last classloader; called when some jars or whole
+     * classloaders have not been analyzed in time.
+     */
+    protected void writePartialNotice(int skippedJars, int skippedClassLoaders, Appendable out)
+            throws IOException {
+    }
+
+    protected void writeFooter(Appendable out) throws IOException {
+    }
+}
@@ -0,0 +1,202 @@
+package com.googlecode.loosejar.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.loosejar.ClassLoaderAnalyzer;
+import com.googlecode.loosejar.JarArchive;
+
+/**
+ * Writes a compact, versioned binary snapshot holding everything the text formats do plus the
+ * names of the loaded classes. All numbers are unsigned LEB128 varints and all strings are UTF-8
+ * prefixed with their length. The snapshot consists of:
+ * <ul>
+ * <li>the {@link #MAGIC} bytes and the {@link #VERSION}</li>
+ * <li>a header: the time of the snapshot in milliseconds, the name of the JVM and the Java version</li>
+ * <li>a {@link #LOADER} record per classloader: the loader class name, the number of jars and, for
+ * each jar, its path and whether it has been analyzed ({@link #ANALYZED} or {@link #SKIPPED});
+ * an analyzed jar goes on with its total number of classes, its classes size, loaded classes size,
+ * compressed classes size, reclaimable size, number of classes reachable but not loaded (plus one,
+ * so that <code>0</code> stands for not determined) and the loaded classes. The skipped jars of a
+ * classloader follow in a record of their own.</li>
+ * <li>a {@link #SKIPPED_LOADER} record per classloader which has not been analyzed in time: the
+ * loader class name</li>
+ * <li>a {@link #PARTIAL} record if anything has not been analyzed in time: the numbers of skipped
+ * jars and skipped classloaders</li>
+ * <li>the {@link #END} tag</li>
+ * </ul>
+ * Version 1 snapshots lack the reachable classes of the jars and the records other than
+ * {@link #LOADER}.
+ * Strings and classes are deduplicated through tables built as they are written: a reference is
+ * <code>0</code> followed by the definition of a new entry, or the index of an existing entry plus
+ * one. A string is defined by its bytes, and a class by references to the strings of its package
+ * and of its simple name, so every package and class name is written only once however many jars
+ * and classloaders share it.
+ * <p>
+ * Binary output is written as is into the <code>loosejar.outputFile</code>; anywhere else, such as
+ * the console or JMX, it is encoded in Base64, which can be read back as well.
+ */
+public class BinarySummarizer extends AbstractSummarizer {
+    public static final byte[] MAGIC = {'L', 'J', 'S', 'B'};
+    public static final int VERSION = 2;
+
+    public static final int END = 0;
+    public static final int LOADER = 1;
+    public static final int SKIPPED_LOADER = 2;
+    public static final int PARTIAL = 3;
+
+    public static final int ANALYZED = 0;
+    public static final int SKIPPED = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Map<Integer, Integer> classes = new HashMap<Integer, Integer>();
+    private final StringBuilder className = new StringBuilder();
+    private OutputStream bytes;
+
+    /**
+     * Writes the binary snapshot of classloaders which have already been analyzed to the supplied
+     * stream.
+     */
+    public void summarize(Iterable<ClassLoaderAnalyzer> analyzers, OutputStream out) throws IOException {
+        bytes = out;
+        try {
+            super.summarize(analyzers, new StringBuilder());
+        } finally {
+            bytes = null;
+            strings.clear();
+            classes.clear();
+        }
+    }
+
+    /**
+     * Writes the binary snapshot of the supplied classloaders to the supplied stream.
+     */
+    public void summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap, OutputStream out)
+            throws IOException {
+        summarize(ClassLoaderAnalyzer.analyzeAll(classLoaderToClassListMap), out);
+    }
+
+    @Override
+    public void summarize(Iterable<ClassLoaderAnalyzer> analyzers, Appendable out) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        summarize(analyzers, buffer);
+        out.append(Base64.getEncoder().encodeToString(buffer.toByteArray()));
+    }
+
+    @Override
+    protected void writeHeader(Appendable out) throws IOException {
+        bytes.write(MAGIC);
+        writeVarint(VERSION);
+        writeVarint(System.currentTimeMillis());
+        writeString(ManagementFactory.getRuntimeMXBean().getName());
+        writeString(System.getProperty("java.version"));
+    }
+
+    @Override
+    protected void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, Appendable out)
+            throws IOException {
+        // the jars which have not been analyzed follow in writeSkippedJars()
+        writeVarint(LOADER);
+        writeStringRef(classLoader.getClass().getName());
+        writeVarint(jars.size());
+        for (JarArchive jar : jars) {
+            writeStringRef(jar.getJar().getPath());
+            writeVarint(ANALYZED);
+            writeVarint(jar.getClassCount());
+            writeVarint(jar.getClassesSize());
+            writeVarint(jar.getLoadedClassesSize());
+            writeVarint(jar.getCompressedClassesSize());
+            writeVarint(jar.getReclaimableSize());
+            writeVarint(jar.getReachableClassCount() + 1);
+            writeVarint(jar.getLoadedClassCount());
+            for (int i = 0; i < jar.getLoadedClassCount(); i++) {
+                writeClassRef(jar, i);
+            }
+        }
+        bytes.flush();
+    }
+
+    @Override
+    protected void writeSkippedJars(ClassLoader classLoader, List<File> jars, Appendable out) throws IOException {
+        // a classloader record of its own, so the analyzed jars can be written as they come
+        writeVarint(LOADER);
+        writeStringRef(classLoader.getClass().getName());
+        writeVarint(jars.size());
+        for (File jar : jars) {
+            writeStringRef(jar.getPath());
+            writeVarint(SKIPPED);
+        }
+    }
+
+    @Override
+    protected void writeSkippedClassLoader(ClassLoader classLoader, Appendable out) throws IOException {
+        writeVarint(SKIPPED_LOADER);
+        writeStringRef(classLoader.getClass().getName());
+    }
+
+    @Override
+    protected void writePartialNotice(int skippedJars, int skippedClassLoaders, Appendable out)
+            throws IOException {
+        writeVarint(PARTIAL);
+        writeVarint(skippedJars);
+        writeVarint(skippedClassLoaders);
+    }
+
+    @Override
+    protected void writeFooter(Appendable out) throws IOException {
+        writeVarint(END);
+        bytes.flush();
+    }
+
+    private void writeClassRef(JarArchive jar, int position) throws IOException {
+        // the name of a class is only needed the first time it is written
+        Integer id = jar.getLoadedClassId(position);
+        Integer index = classes.get(id);
+        if (index != null) {
+            writeVarint(index + 1);
+            return;
+        }
+        classes.put(id, classes.size());
+        writeVarint(0);
+        className.setLength(0);
+        jar.appendLoadedClassName(position, className);
+        int dot = className.lastIndexOf(".");
+        writeStringRef(dot < 0 ? "" : className.substring(0, dot));
+        writeStringRef(className.substring(dot + 1));
+    }
+
+    private void writeStringRef(String s) throws IOException {
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeVarint(index + 1);
+            return;
+        }
+        strings.put(s, strings.size());
+        writeVarint(0);
+        writeString(s);
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] utf8 = s.getBytes(UTF_8);
+        writeVarint(utf8.length);
+        bytes.write(utf8);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            bytes.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bytes.write((int) value);
+    }
+}
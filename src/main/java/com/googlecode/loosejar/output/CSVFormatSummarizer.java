@@ -1,47 +1,66 @@
 package com.googlecode.loosejar.output;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
-import com.googlecode.loosejar.ClassLoaderAnalyzer;
 import com.googlecode.loosejar.JarArchive;
 
-public class CSVFormatSummarizer implements Summarizer {
+public class CSVFormatSummarizer extends AbstractSummarizer {
 
-    public String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap) {
-        StringBuilder builder = new StringBuilder();
+    @Override
+    protected void writeHeader(Appendable out) throws IOException {
+        out.append("\"ClassLoader Name\",");
+        out.append("\"Jar\",");
+        out.append("\"Utilization\",");
+        out.append("\"Loaded Classes\",");
+        out.append("\"Total Classes\",");
+        out.append("\"Classes Size\",");
+        out.append("\"Loaded Classes Size\",");
+        out.append("\"Compressed Classes Size\",");
+        out.append("\"Reclaimable Size\",");
+        out.append("\"Reachable Classes\",");
+        out.append("\"Unreachable Classes\"");
+        out.append("\n");
+    }
 
-        writeHeader(builder);
+    private void writeSummaryForJar(ClassLoader classLoader, JarArchive jar, Appendable out) throws IOException {
+        String reachable = jar.getReachableClassCount() < 0 ? "" : String.valueOf(jar.getReachableClassCount());
+        String unreachable = jar.getUnreachableClassCount() < 0 ? "" : String.valueOf(jar.getUnreachableClassCount());
+        out.append((String.format(
+                "\"%s\",\"%s\",\"%.2f%%\",\"%d\",\"%d\",\"%d\",\"%d\",\"%d\",\"%d\",\"%s\",\"%s\"\n",
+                escape(classLoader.getClass().getName()), escape(jar.getJar().getPath()), jar.getUsagePercentage(),
+                jar.getLoadedClassCount(), jar.getClassCount(), jar.getClassesSize(),
+                jar.getLoadedClassesSize(), jar.getCompressedClassesSize(), jar.getReclaimableSize(),
+                reachable, unreachable)));
+    }
 
-        //noinspection Duplicates
-        for (ClassLoader ucl : classLoaderToClassListMap.keySet()) {
-            ClassLoaderAnalyzer classLoaderAnalyzer = new ClassLoaderAnalyzer(ucl, classLoaderToClassListMap.get(ucl));
-            classLoaderAnalyzer.analyze();
-            List<JarArchive> jarList = classLoaderAnalyzer.getJars();
-            writeSummaryForClassloader(ucl, jarList, builder);
+    @Override
+    protected void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jarList, Appendable out)
+            throws IOException {
+        for (JarArchive jarArchive : jarList) {
+            writeSummaryForJar(classLoader, jarArchive, out);
         }
-
-        return builder.toString();
     }
 
-    private void writeHeader(StringBuilder builder) {
-        builder.append("\"ClassLoader Name\",");
-        builder.append("\"Jar\",");
-        builder.append("\"Utilization\",");
-        builder.append("\"Loaded Classes\",");
-        builder.append("\"Total Classes\"");
-        builder.append("\n");
+    private static String escape(String value) {
+        // a quote inside a quoted field is doubled
+        return value.indexOf('"') < 0 ? value : value.replace("\"", "\"\"");
     }
 
-    private void writeSummaryForJar(ClassLoader classLoader, JarArchive jar, StringBuilder builder) {
-        builder.append((String.format("\"%s\",\"%s\",\"%.2f%%\",\"%d\",\"%d\"\n", classLoader.getClass().getName(),
-                jar.getJar(), jar.getUsagePercentage(), jar.getNamesOfLoadedClasses().size(),
-                jar.getAllClassNames().size())));
+    @Override
+    protected void writeSkippedJars(ClassLoader classLoader, List<File> jars, Appendable out) throws IOException {
+        // the rows of the jars which have not been analyzed in time mark the results as partial
+        for (File jar : jars) {
+            out.append(String.format("\"%s\",\"%s\",\"not analyzed\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\"\n",
+                    escape(classLoader.getClass().getName()), escape(jar.getPath())));
+        }
     }
 
-    private void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jarList, StringBuilder builder) {
-        for (JarArchive jarArchive : jarList) {
-            writeSummaryForJar(classLoader, jarArchive, builder);
-        }
+    @Override
+    protected void writeSkippedClassLoader(ClassLoader classLoader, Appendable out) throws IOException {
+        // a classloader whose jars could not be found in time has a single row without a jar
+        out.append(String.format("\"%s\",\"\",\"not analyzed\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\"\n",
+                escape(classLoader.getClass().getName())));
     }
 }
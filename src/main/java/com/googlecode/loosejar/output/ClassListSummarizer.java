@@ -0,0 +1,108 @@
+package com.googlecode.loosejar.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.googlecode.loosejar.ClassLoaderAnalyzer;
+import com.googlecode.loosejar.JarArchive;
+
+/**
+ * Writes a class list for the application class loader in the format of the
+ * <code>-XX:SharedClassListFile</code> option, so that the classes loaded by the application can
+ * be put into an AppCDS archive. One class is written per line as an internal name
+ * (<code>name/of/package/SomeClass</code>) in the order the classes were loaded, which requires
+ * the <code>loosejar.record</code> system property; without it the order is that of the JVM's list
+ * of loaded classes, and a comment at the top of the list says so.
+ * <p>
+ * Only the classes found in plain jar files are listed. CDS cannot archive classes loaded from
+ * directories or from jars nested inside other jars, nor classes generated at runtime such as
+ * lambda forms, proxies and other hidden classes, so those are left out. The other classloaders
+ * are ignored altogether.
+ * <p>
+ * The list is not a report on jars, so this is not an {@link AbstractSummarizer}. The jars which
+ * have not been analyzed before the <code>loosejar.shutdownTimeout</code> deadline are noted in
+ * a comment as well, since their classes are missing from the list.
+ */
+public class ClassListSummarizer implements Summarizer {
+
+    public String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            summarize(classLoaderToClassListMap, builder);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    public void summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap, Appendable out)
+            throws IOException {
+        // no need to analyze the jars of the classloaders which are not listed
+        ClassLoader appClassLoader = ClassLoader.getSystemClassLoader();
+        List<String> classNames = classLoaderToClassListMap.get(appClassLoader);
+        Map<ClassLoader, List<String>> map = classNames == null
+                ? Collections.<ClassLoader, List<String>>emptyMap()
+                : Collections.singletonMap(appClassLoader, classNames);
+        summarize(ClassLoaderAnalyzer.analyzeAll(map), out);
+    }
+
+    public void summarize(Iterable<ClassLoaderAnalyzer> analyzers, Appendable out) throws IOException {
+        ClassLoader appClassLoader = ClassLoader.getSystemClassLoader();
+        for (ClassLoaderAnalyzer analyzer : analyzers) {
+            if (analyzer.getClassLoader() == appClassLoader) {
+                // CDS skips the lines which start with '#'
+                if (!analyzer.isInLoadOrder()) {
+                    out.append("# The classes are not in the order they were loaded;"
+                            + " set loosejar.record to true for that.\n");
+                }
+                if (analyzer.isSkipped()) {
+                    out.append("# PARTIAL RESULTS: the jars of the application classloader could not be found"
+                            + " before the deadline.\n");
+                    continue;
+                }
+                if (!analyzer.getSkippedJars().isEmpty()) {
+                    out.append(String.format("# PARTIAL RESULTS: %d jar(s) could not be analyzed before the deadline;"
+                            + " their classes are missing.\n", analyzer.getSkippedJars().size()));
+                }
+                writeClassList(analyzer, out);
+            }
+        }
+    }
+
+    private static void writeClassList(ClassLoaderAnalyzer analyzer, Appendable out) throws IOException {
+        Set<String> archivable = new HashSet<String>();
+        for (JarArchive jar : analyzer.getJars()) {
+            if (isPlainJar(jar.getJar())) {
+                archivable.addAll(jar.getNamesOfLoadedClasses());
+            }
+        }
+
+        for (String className : analyzer.getClassNames()) {
+            if (archivable.contains(className) && !isGenerated(className)) {
+                out.append(className.replace('.', '/')).append('\n');
+            }
+        }
+    }
+
+    private static boolean isPlainJar(File jar) {
+        // a nested jar has a path such as /app.jar!/BOOT-INF/lib/lib.jar
+        return jar.isFile() && !jar.getPath().contains("!");
+    }
+
+    private static boolean isGenerated(String className) {
+        // hidden classes are named like Outer$$Lambda/0x0000000800c01234; the rest are the names
+        // given by the JDK proxies and by cglib
+        return className.indexOf('/') >= 0
+                || className.contains("$$Lambda")
+                || className.startsWith("com.sun.proxy.")
+                || className.startsWith("jdk.proxy")
+                || className.contains("$$EnhancerBy")
+                || className.contains("$$FastClassBy");
+    }
+}
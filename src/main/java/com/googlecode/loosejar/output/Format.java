@@ -1,7 +1,7 @@
 package com.googlecode.loosejar.output;
 
 public enum Format {
-    CSV, VERBAL;
+    CSV, VERBAL, CLASSLIST, USAGE, BINARY, JSON, NDJSON;
 
     public static Format fromString(String formatName) {
         for (Format format : Format.values()) {
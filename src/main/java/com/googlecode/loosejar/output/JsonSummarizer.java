@@ -0,0 +1,149 @@
+package com.googlecode.loosejar.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.googlecode.loosejar.JarArchive;
+
+/**
+ * Writes a JSON record per jar, either as the elements of a single JSON array or, in the
+ * newline delimited form, as a JSON object per line. Each record identifies the classloader, as
+ * its class name and identity hash code, along with its parents up to the bootstrap classloader.
+ * The names of the loaded classes are included if the <code>loosejar.listClasses</code> system
+ * property is set to <code>true</code>.
+ * <p>
+ * The <code>record</code> field tells the kinds of records apart: <code>jar</code> for a jar,
+ * <code>classLoader</code> for a classloader which has not been analyzed in time, and <code>summary</code> for the last record,
+ * which says whether the results are partial. A report without the summary has been cut short.
+ * <p>
+ * Records are written as they are produced, so a report of any size can go straight into a file.
+ */
+public class JsonSummarizer extends AbstractSummarizer {
+    private final boolean newlineDelimited;
+    private final boolean listClasses = Boolean.getBoolean("loosejar.listClasses");
+    private boolean first;
+    private int skippedJars;
+    private int skippedClassLoaders;
+
+    /**
+     * @param newlineDelimited <code>true</code> for a JSON object per line rather than a JSON array
+     */
+    public JsonSummarizer(boolean newlineDelimited) {
+        this.newlineDelimited = newlineDelimited;
+    }
+
+    @Override
+    protected void writeHeader(Appendable out) throws IOException {
+        first = true;
+        skippedJars = 0;
+        skippedClassLoaders = 0;
+        if (!newlineDelimited) {
+            out.append('[');
+        }
+    }
+
+    @Override
+    protected void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, Appendable out)
+            throws IOException {
+        for (JarArchive jar : jars) {
+            JsonWriter json = beginJarRecord(classLoader, jar.getJar(), true, out);
+            json.name("loadedClasses").value(jar.getLoadedClassCount());
+            json.name("totalClasses").value(jar.getClassCount());
+            json.name("utilization").value(jar.getUsagePercentage());
+            json.name("classesSize").value(jar.getClassesSize());
+            json.name("loadedClassesSize").value(jar.getLoadedClassesSize());
+            json.name("compressedClassesSize").value(jar.getCompressedClassesSize());
+            json.name("reclaimableSize").value(jar.getReclaimableSize());
+            json.name("sizeUtilization").value(jar.getSizeUsagePercentage());
+            if (jar.getReachableClassCount() >= 0) {
+                json.name("reachableClasses").value(jar.getReachableClassCount());
+                json.name("unreachableClasses").value(jar.getUnreachableClassCount());
+            }
+            if (listClasses) {
+                json.name("loadedClassNames").beginArray();
+                StringBuilder className = new StringBuilder();
+                for (int i = 0; i < jar.getLoadedClassCount(); i++) {
+                    className.setLength(0);
+                    jar.appendLoadedClassName(i, className);
+                    json.value(className);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+    }
+
+    @Override
+    protected void writeSkippedJars(ClassLoader classLoader, List<File> jars, Appendable out) throws IOException {
+        for (File jar : jars) {
+            beginJarRecord(classLoader, jar, false, out).endObject();
+        }
+    }
+
+    @Override
+    protected void writeSkippedClassLoader(ClassLoader classLoader, Appendable out) throws IOException {
+        JsonWriter json = beginRecord("classLoader", classLoader, out);
+        json.name("analyzed").value(false);
+        json.endObject();
+    }
+
+    @Override
+    protected void writePartialNotice(int skippedJars, int skippedClassLoaders, Appendable out)
+            throws IOException {
+        // the summary record comes last, in writeFooter()
+        this.skippedJars = skippedJars;
+        this.skippedClassLoaders = skippedClassLoaders;
+    }
+
+    @Override
+    protected void writeFooter(Appendable out) throws IOException {
+        JsonWriter json = beginRecord("summary", null, out);
+        json.name("partial").value(skippedJars > 0 || skippedClassLoaders > 0);
+        json.name("skippedJars").value(skippedJars);
+        json.name("skippedClassLoaders").value(skippedClassLoaders);
+        json.endObject();
+        if (!newlineDelimited) {
+            out.append("\n]");
+        }
+    }
+
+    private JsonWriter beginJarRecord(ClassLoader classLoader, File jar, boolean analyzed, Appendable out)
+            throws IOException {
+        JsonWriter json = beginRecord("jar", classLoader, out);
+        json.name("jar").value(jar.getPath());
+        json.name("analyzed").value(analyzed);
+        return json;
+    }
+
+    /**
+     * Begins a record of the supplied kind, identifying the supplied classloader unless it is
+     * <code>null</code>.
+     */
+    private JsonWriter beginRecord(String record, ClassLoader classLoader, Appendable out) throws IOException {
+        if (newlineDelimited) {
+            out.append(first ? "" : "\n");
+        } else {
+            out.append(first ? "\n" : ",\n");
+        }
+        first = false;
+
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("record").value(record);
+        if (classLoader != null) {
+            json.name("classLoader").value(identity(classLoader));
+            json.name("parents").beginArray();
+            for (ClassLoader parent = classLoader.getParent(); parent != null; parent = parent.getParent()) {
+                json.value(identity(parent));
+            }
+            json.endArray();
+        }
+        return json;
+    }
+
+    private static String identity(ClassLoader classLoader) {
+        // the same as Object.toString(), which classloaders often override
+        return classLoader.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(classLoader));
+    }
+}
@@ -0,0 +1,149 @@
+package com.googlecode.loosejar.output;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A minimal streaming JSON writer. Values are appended to the output as they are written, so
+ * nothing but the nesting of the objects and arrays is kept, and strings are escaped in runs
+ * rather than copied character by character.
+ */
+class JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Appendable out;
+
+    // whether the object or array at each level of nesting already has a member
+    private boolean[] hasMembers = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(Appendable out) {
+        this.out = out;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return begin('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return end('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return begin('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return end(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(CharSequence value) throws IOException {
+        separate();
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        out.append(String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Write a number with two decimal places, such as a percentage.
+     */
+    JsonWriter value(double value) throws IOException {
+        separate();
+        // JSON wants a decimal point whatever the locale
+        out.append(String.format(Locale.ROOT, "%.2f", value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.append(value ? "true" : "false");
+        return this;
+    }
+
+    private JsonWriter begin(char bracket) throws IOException {
+        separate();
+        out.append(bracket);
+        if (++depth == hasMembers.length) {
+            hasMembers = Arrays.copyOf(hasMembers, depth * 2);
+        }
+        hasMembers[depth] = false;
+        return this;
+    }
+
+    private JsonWriter end(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("nothing to close");
+        }
+        depth--;
+        out.append(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMembers[depth]) {
+                out.append(',');
+            }
+            hasMembers[depth] = true;
+        }
+    }
+
+    private void string(CharSequence s) throws IOException {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(s, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    // other control characters, and the line separators JavaScript does not allow in strings
+                    out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(s, start, s.length());
+        out.append('"');
+    }
+}
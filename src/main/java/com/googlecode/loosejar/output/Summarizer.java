@@ -1,9 +1,39 @@
 package com.googlecode.loosejar.output;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.googlecode.loosejar.ClassLoaderAnalyzer;
+
 public interface Summarizer {
 
     String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap);
+
+    /**
+     * Writes the summary to the supplied output as each classloader is analyzed, so the report
+     * is never held in memory as a whole. The default implementation writes the <code>String</code>
+     * form; {@link AbstractSummarizer} streams.
+     */
+    default void summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap, Appendable out)
+            throws IOException {
+        out.append(summarize(classLoaderToClassListMap));
+    }
+
+    /**
+     * Writes the summary of classloaders which have already been analyzed. The default
+     * implementation analyzes their classes once more through the <code>String</code> form,
+     * leaving out the classloaders which had no time to be analyzed in the first place.
+     */
+    default void summarize(Iterable<ClassLoaderAnalyzer> analyzers, Appendable out) throws IOException {
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        for (ClassLoaderAnalyzer analyzer : analyzers) {
+            if (analyzer.isSkipped()) {
+                continue;
+            }
+            map.put(analyzer.getClassLoader(), analyzer.getClassNames());
+        }
+        out.append(summarize(map));
+    }
 }
@@ -13,6 +13,21 @@ public class SummarizerFactory {
             case CSV:
                 writer = new CSVFormatSummarizer();
                 break;
+            case CLASSLIST:
+                writer = new ClassListSummarizer();
+                break;
+            case USAGE:
+                writer = new UsageSummarizer();
+                break;
+            case BINARY:
+                writer = new BinarySummarizer();
+                break;
+            case JSON:
+                writer = new JsonSummarizer(false);
+                break;
+            case NDJSON:
+                writer = new JsonSummarizer(true);
+                break;
             case VERBAL:
             default:
                 writer = new VerbalSummarizer();
@@ -0,0 +1,77 @@
+package com.googlecode.loosejar.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.googlecode.loosejar.JarArchive;
+
+/**
+ * Writes a usage snapshot: the names of the classes loaded from each jar, for tools such as the
+ * jar minimizer to work from rather than for people to read. A jar seen by several classloaders is
+ * written once with the union of its loaded classes. Jars are sorted by path and the classes of a
+ * jar by name, so that snapshots can be merged without being read into memory:
+ * <pre>
+ * # loosejar usage 1
+ * jar 154 /srv/app/lib/junit-4.4.jar
+ *   junit.framework.Assert
+ *   junit.framework.TestCase
+ * </pre>
+ * The number after <code>jar</code> is the total number of classes in the jar. Jars which have
+ * not been analyzed in time are left out.
+ */
+public class UsageSummarizer extends AbstractSummarizer {
+    // the class names are only created, one jar at a time, as they are written
+    private final Map<File, BitSet> loadedClasses = new TreeMap<File, BitSet>();
+    private final Map<File, JarArchive> archives = new TreeMap<File, JarArchive>();
+
+    @Override
+    protected void writeHeader(Appendable out) throws IOException {
+        out.append("# loosejar usage 1\n");
+    }
+
+    @Override
+    protected void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, Appendable out)
+            throws IOException {
+        // nothing is written until every classloader has been seen
+        for (JarArchive jar : jars) {
+            BitSet classes = loadedClasses.get(jar.getJar());
+            if (classes == null) {
+                classes = new BitSet();
+                loadedClasses.put(jar.getJar(), classes);
+                archives.put(jar.getJar(), jar);
+            }
+            for (int i = 0; i < jar.getLoadedClassCount(); i++) {
+                classes.set(jar.getLoadedClassId(i));
+            }
+        }
+    }
+
+    @Override
+    protected void writeFooter(Appendable out) throws IOException {
+        for (Map.Entry<File, BitSet> entry : loadedClasses.entrySet()) {
+            JarArchive jar = archives.get(entry.getKey());
+            out.append("jar ").append(String.valueOf(jar.getClassCount())).append(' ')
+                    .append(entry.getKey().getPath()).append('\n');
+            for (String className : sortedNames(entry.getValue())) {
+                out.append("  ").append(className).append('\n');
+            }
+        }
+        loadedClasses.clear();
+        archives.clear();
+    }
+
+    private static String[] sortedNames(BitSet classIds) {
+        String[] names = new String[classIds.cardinality()];
+        int i = 0;
+        for (int id = classIds.nextSetBit(0); id >= 0; id = classIds.nextSetBit(id + 1)) {
+            names[i++] = JarArchive.className(id);
+        }
+        Arrays.sort(names);
+        return names;
+    }
+}
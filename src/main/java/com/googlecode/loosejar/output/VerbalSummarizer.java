@@ -1,40 +1,82 @@
 package com.googlecode.loosejar.output;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
-import com.googlecode.loosejar.ClassLoaderAnalyzer;
 import com.googlecode.loosejar.JarArchive;
 
-public class VerbalSummarizer implements Summarizer {
+public class VerbalSummarizer extends AbstractSummarizer {
 
-    public String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap) {
-        StringBuilder builder = new StringBuilder();
-        //noinspection Duplicates
-        for (ClassLoader ucl : classLoaderToClassListMap.keySet()) {
-            ClassLoaderAnalyzer classLoaderAnalyzer = new ClassLoaderAnalyzer(ucl, classLoaderToClassListMap.get(ucl));
-            classLoaderAnalyzer.analyze();
-            List<JarArchive> jarList = classLoaderAnalyzer.getJars();
-            writeSummaryForClassloader(ucl, jarList, builder);
-        }
-        return builder.toString();
-    }
-
-    private void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, StringBuilder builder) {
-        builder.append("Summary for [" + classLoader.getClass().getName() + "] classloader:\n\n");
+    @Override
+    protected void writeSummaryForClassloader(ClassLoader classLoader, List<JarArchive> jars, Appendable out)
+            throws IOException {
+        out.append("Summary for [" + classLoader.getClass().getName() + "] classloader:\n\n");
         //noinspection Duplicates
         for (JarArchive jar : jars) {
-            builder.append("    ");
-            builder.append("Jar: " + jar.getJar() + '\n');
-            builder.append("    ");
-            builder.append(
+            out.append("    ");
+            out.append("Jar: " + jar.getJar() + '\n');
+            out.append("    ");
+            out.append(
                     String.format(
-                            "Utilization: %.2f%% - loaded %d of %d classes.\n\n",
+                            "Utilization: %.2f%% - loaded %d of %d classes.\n",
                             jar.getUsagePercentage(),
-                            jar.getNamesOfLoadedClasses().size(),
-                            jar.getAllClassNames().size()
+                            jar.getLoadedClassCount(),
+                            jar.getClassCount()
                     )
             );
+            out.append("    ");
+            out.append(
+                    String.format(
+                            "Size: %.2f%% - loaded %s of %s, %s reclaimable from the jar.\n",
+                            jar.getSizeUsagePercentage(),
+                            bytes(jar.getLoadedClassesSize()),
+                            bytes(jar.getClassesSize()),
+                            bytes(jar.getReclaimableSize())
+                    )
+            );
+            if (jar.getReachableClassCount() >= 0) {
+                out.append("    ");
+                out.append(String.format(
+                        "Reachability: %d loaded, %d reachable but not loaded, %d unreachable classes.\n",
+                        jar.getLoadedClassCount(), jar.getReachableClassCount(),
+                        jar.getUnreachableClassCount()));
+            }
+            out.append('\n');
+        }
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    @Override
+    protected void writeSkippedJars(ClassLoader classLoader, List<File> jars, Appendable out) throws IOException {
+        for (File jar : jars) {
+            out.append("    ");
+            out.append("Jar: " + jar + '\n');
+            out.append("    ");
+            out.append("Utilization: unknown - not analyzed before the deadline.\n\n");
         }
     }
+
+    @Override
+    protected void writeSkippedClassLoader(ClassLoader classLoader, Appendable out) throws IOException {
+        out.append("Summary for [" + classLoader.getClass().getName() + "] classloader:\n\n");
+        out.append("    ");
+        out.append("Not analyzed - the jars of the classloader could not be found before the deadline.\n\n");
+    }
+
+    @Override
+    protected void writePartialNotice(int skippedJars, int skippedClassLoaders, Appendable out)
+            throws IOException {
+        out.append(String.format("PARTIAL RESULTS: %d jar(s) and %d classloader(s) could not be analyzed "
+                + "before the deadline.\n\n", skippedJars, skippedClassLoaders));
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.loosejar.output.BinarySummarizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class BinarySnapshotReaderTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File jar;
+    private URLClassLoader loader;
+
+    @Before
+    public void createClassLoader() throws IOException {
+        jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("binary/A.class", new byte[1])
+                .stored("binary/B.class", new byte[1])
+                .stored("binary/c/C.class", new byte[1])
+                .write(temp.newFile("lib.jar"));
+        loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+    }
+
+    @After
+    public void closeClassLoader() throws IOException {
+        loader.close();
+    }
+
+    @Test
+    public void readsWhatIsWritten() throws IOException {
+        File snapshot = temp.newFile("snapshot.bin");
+        OutputStream out = new FileOutputStream(snapshot);
+        try {
+            new BinarySummarizer().summarize(map("binary.B", "binary.c.C"), out);
+        } finally {
+            out.close();
+        }
+
+        assertTrue(BinarySnapshotReader.isBinary(snapshot));
+        assertUsage(BinarySnapshotReader.read(snapshot), "binary.B", "binary.c.C");
+    }
+
+    @Test
+    public void readsTheReachableClassesAndTheTimeOfVersion2() throws IOException {
+        System.setProperty("loosejar.reachability", "true");
+        File snapshot = temp.newFile("snapshot.bin");
+        OutputStream out = new FileOutputStream(snapshot);
+        try {
+            new BinarySummarizer().summarize(map("binary.A"), out);
+        } finally {
+            out.close();
+            System.clearProperty("loosejar.reachability");
+        }
+
+        assertUsage(BinarySnapshotReader.read(snapshot), "binary.A");
+    }
+
+    @Test
+    public void readsTheBase64OfTheConsole() throws IOException {
+        StringBuilder base64 = new StringBuilder();
+        new BinarySummarizer().summarize(map("binary.A", "binary.B"), base64);
+        File snapshot = temp.newFile("snapshot.txt");
+        Files.write(snapshot.toPath(), ("\n  " + base64 + System.getProperty("line.separator")).getBytes("UTF-8"));
+
+        assertTrue(BinarySnapshotReader.isBinary(snapshot));
+        assertUsage(BinarySnapshotReader.read(snapshot), "binary.A", "binary.B");
+    }
+
+    @Test
+    public void readsVersion1() throws IOException {
+        Bytes bytes = new Bytes().magic().varint(1).varint(0).string("jvm").string("1.8");
+        bytes.varint(BinarySummarizer.LOADER).varint(0).string("Loader").varint(1);
+        bytes.varint(0).string(jar.getPath()).varint(BinarySummarizer.ANALYZED).varint(4);
+        bytes.varint(10).varint(5).varint(8).varint(5);
+        bytes.varint(1).varint(0).varint(0).string("binary").varint(0).string("A");
+        bytes.varint(BinarySummarizer.END);
+
+        SortedMap<File, BinarySnapshotReader.Usage> jars = BinarySnapshotReader.read(bytes.write(temp.newFile()));
+        assertEquals(4, jars.get(jar).getTotalClasses());
+        assertEquals(new TreeSet<String>(Arrays.asList("binary.A")), jars.get(jar).getLoadedClasses());
+    }
+
+    @Test
+    public void skipsTheClassLoadersDroppedAtTheDeadline() throws IOException {
+        File snapshot = temp.newFile("snapshot.bin");
+        OutputStream out = new FileOutputStream(snapshot);
+        try {
+            new BinarySummarizer().summarize(ClassLoaderAnalyzer.analyzeAll(map("binary.A"), System.nanoTime() - 1), out);
+        } finally {
+            out.close();
+        }
+
+        assertTrue(BinarySnapshotReader.read(snapshot).isEmpty());
+    }
+
+    @Test
+    public void rejectsACorruptStringLength() throws IOException {
+        Bytes bytes = new Bytes().magic().varint(BinarySummarizer.VERSION).varint(0).varint(0xFFFFFFFFL);
+        assertRejected(bytes.write(temp.newFile()), "exceeds");
+    }
+
+    @Test
+    public void rejectsAnUndefinedReference() throws IOException {
+        Bytes bytes = new Bytes().magic().varint(BinarySummarizer.VERSION).varint(0).string("jvm").string("17");
+        bytes.varint(BinarySummarizer.LOADER).varint(0x100000001L);
+        assertRejected(bytes.write(temp.newFile()), "undefined reference");
+    }
+
+    @Test
+    public void rejectsATruncatedSnapshot() throws IOException {
+        File snapshot = temp.newFile("snapshot.bin");
+        OutputStream out = new FileOutputStream(snapshot);
+        try {
+            new BinarySummarizer().summarize(map("binary.A"), out);
+        } finally {
+            out.close();
+        }
+        byte[] data = Files.readAllBytes(snapshot.toPath());
+        Files.write(snapshot.toPath(), Arrays.copyOf(data, data.length - 3));
+
+        assertRejected(snapshot, "truncated");
+    }
+
+    private void assertRejected(File snapshot, String message) {
+        try {
+            BinarySnapshotReader.read(snapshot);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private void assertUsage(SortedMap<File, BinarySnapshotReader.Usage> jars, String... loaded) {
+        assertEquals(Collections.singleton(jar), jars.keySet());
+        assertEquals(3, jars.get(jar).getTotalClasses());
+        assertEquals(new TreeSet<String>(Arrays.asList(loaded)), jars.get(jar).getLoadedClasses());
+    }
+
+    private Map<ClassLoader, List<String>> map(String... loaded) {
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(loader, Arrays.asList(loaded));
+        return map;
+    }
+
+    /**
+     * A snapshot written by hand.
+     */
+    private static final class Bytes {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Bytes magic() throws IOException {
+            out.write(BinarySummarizer.MAGIC);
+            return this;
+        }
+
+        Bytes varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Bytes string(String s) throws IOException {
+            byte[] utf8 = s.getBytes("UTF-8");
+            varint(utf8.length);
+            out.write(utf8);
+            return this;
+        }
+
+        File write(File file) throws IOException {
+            Files.write(file.toPath(), out.toByteArray());
+            return file;
+        }
+    }
+}
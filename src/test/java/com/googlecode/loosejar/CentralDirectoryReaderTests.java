@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class CentralDirectoryReaderTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void listsOnlyClassesWithTheirSizes() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .deflated("META-INF/MANIFEST.MF", ZipBuilder.data(40))
+                .stored("com/example/", new byte[0])
+                .deflated("com/example/A.class", ZipBuilder.data(1000))
+                .stored("com/example/inner/B$1.class", ZipBuilder.data(300))
+                .stored("com/example/.class", ZipBuilder.data(1))
+                .stored("Default.class", ZipBuilder.data(10))
+                .stored("readme.class.txt", ZipBuilder.data(10))
+                .build();
+
+        ClassEntries classes = new CentralDirectoryReader(ByteBuffer.wrap(zip)).readClasses();
+
+        assertEquals(Arrays.asList("com.example.A", "com.example.inner.B$1", "com.example.", "Default"),
+                classes.names());
+        assertEquals(1000, classes.size(0));
+        assertTrue(classes.compressedSize(0) < 1000);
+        assertEquals(300, classes.size(1));
+        assertEquals(300, classes.compressedSize(1));
+    }
+
+    @Test
+    public void agreesWithZipFile() throws IOException {
+        File jar = temp.newFile("agrees.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (int i = 0; i < 50; i++) {
+                out.putNextEntry(new ZipEntry("org/sample/p" + (i % 4) + "/C" + i + ".class"));
+                out.write(ZipBuilder.data(i * 13));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+
+        ClassEntries classes = CentralDirectoryReader.readClasses(jar);
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            assertEquals(zipFile.size(), classes.size());
+            for (int i = 0; i < classes.size(); i++) {
+                ZipEntry entry = zipFile.getEntry(classes.name(i).replace('.', '/') + ".class");
+                assertEquals(entry.getSize(), classes.size(i));
+                assertEquals(entry.getCompressedSize(), classes.compressedSize(i));
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void skipsCommentsAndPrependedData() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .prefix("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes("US-ASCII"))
+                .commented("a/A.class", ZipBuilder.data(20), "the first class")
+                .commented("a/B.class", ZipBuilder.data(30), "the second class")
+                .comment("an archive comment which happens to contain PK\u0005\u0006 in it")
+                .build();
+
+        CentralDirectoryReader reader = new CentralDirectoryReader(ByteBuffer.wrap(zip));
+        assertTrue(reader.next());
+        assertEquals("a.A", reader.className());
+        assertEquals(ByteBuffer.wrap(ZipBuilder.data(20)), reader.data());
+        assertTrue(reader.next());
+        assertEquals("a/B.class", reader.name());
+        assertEquals(ByteBuffer.wrap(ZipBuilder.data(30)), reader.data());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void readsZip64Records() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .zip64()
+                .prefix(new byte[100])
+                .deflated("z/Big.class", ZipBuilder.data(5000))
+                .stored("z/Small.class", ZipBuilder.data(50))
+                .build();
+
+        CentralDirectoryReader reader = new CentralDirectoryReader(ByteBuffer.wrap(zip));
+        assertTrue(reader.next());
+        assertEquals(5000, reader.size());
+        assertTrue(reader.next());
+        assertEquals(50, reader.size());
+        assertEquals(50, reader.compressedSize());
+        assertEquals(ByteBuffer.wrap(ZipBuilder.data(50)), reader.data());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void readsMoreEntriesThanTheEndRecordCanCount() throws IOException {
+        // ZipOutputStream switches to Zip64 past 65535 entries
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        out.setLevel(0);
+        for (int i = 0; i < 70000; i++) {
+            out.putNextEntry(new ZipEntry("p/C" + i + ".class"));
+            out.closeEntry();
+        }
+        out.close();
+
+        ClassEntries classes = new CentralDirectoryReader(ByteBuffer.wrap(bytes.toByteArray())).readClasses();
+        assertEquals(70000, classes.size());
+        assertEquals("p.C69999", classes.name(69999));
+    }
+
+    @Test
+    public void localRecordsIncludeDataDescriptors() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .described("d/A.class", ZipBuilder.data(700), true)
+                .described("d/B.class", ZipBuilder.data(900), false)
+                .stored("d/C.class", ZipBuilder.data(10))
+                .described("d/D.class", ZipBuilder.data(0), false)
+                .build();
+
+        // the records of all the entries make up everything before the central directory
+        CentralDirectoryReader reader = new CentralDirectoryReader(ByteBuffer.wrap(zip));
+        int offset = 0;
+        while (reader.next()) {
+            ByteBuffer record = reader.localRecord();
+            assertEquals(ByteBuffer.wrap(zip, offset, record.remaining()), record);
+            offset += record.remaining();
+        }
+        assertEquals(0x02014b50, ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).getInt(offset));
+    }
+
+    @Test
+    public void localRecordsOfZipOutputStreamEntries() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        for (int i = 0; i < 5; i++) {
+            out.putNextEntry(new ZipEntry("e/C" + i + ".class"));
+            out.write(ZipBuilder.data(i * 100));
+            out.closeEntry();
+        }
+        out.close();
+        byte[] zip = bytes.toByteArray();
+
+        CentralDirectoryReader reader = new CentralDirectoryReader(ByteBuffer.wrap(zip));
+        int total = 0;
+        while (reader.next()) {
+            total += reader.localRecord().remaining();
+        }
+        CentralDirectoryReader directory = new CentralDirectoryReader(ByteBuffer.wrap(zip));
+        directory.next();
+        int centralStart = zip.length - 22 - 5 * directory.centralHeader().remaining();
+        assertEquals(centralStart, total);
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsLegacyEncodedNames() throws IOException {
+        byte[] zip = new ZipBuilder().legacyNames().stored("café/A.class", ZipBuilder.data(1)).build();
+        new CentralDirectoryReader(ByteBuffer.wrap(zip)).readClasses();
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsWhatIsNotAnArchive() throws IOException {
+        new CentralDirectoryReader(ByteBuffer.wrap(ZipBuilder.data(1000)));
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsInconsistentOffsets() throws IOException {
+        byte[] zip = new ZipBuilder().stored("t/A.class", ZipBuilder.data(10)).build();
+        // move the central directory past where it actually starts
+        zip[zip.length - 6] += 10;
+        new CentralDirectoryReader(ByteBuffer.wrap(zip)).readClasses();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.loosejar.output.ClassListSummarizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class ClassListSummarizerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void listsTheArchivableClassesOfTheApplicationClassLoader() throws IOException {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("other/A.class", new byte[1])
+                .write(temp.newFile("other.jar"));
+        URLClassLoader other = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(ClassLoader.getSystemClassLoader(), Arrays.asList(
+                Test.class.getName(),
+                // loaded from a directory, generated at runtime and not in any jar
+                ClassListSummarizerTests.class.getName(),
+                "org.junit.Test$$Lambda$1/0x0000000800c01234",
+                "org.junit.Missing",
+                "org.junit.Assert"));
+        map.put(other, Arrays.asList("other.A"));
+
+        assertEquals("# The classes are not in the order they were loaded; set loosejar.record to true for that.\n"
+                + "org/junit/Test\n"
+                + "org/junit/Assert\n", new ClassListSummarizer().summarize(map));
+        other.close();
+    }
+
+    @Test
+    public void notesTheClassLoaderLeftOutAtTheDeadline() throws IOException {
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(ClassLoader.getSystemClassLoader(), Arrays.asList(Test.class.getName()));
+
+        StringBuilder out = new StringBuilder();
+        new ClassListSummarizer().summarize(ClassLoaderAnalyzer.analyzeAll(map, System.nanoTime() - 1), out);
+        assertTrue(out.toString(), out.toString().endsWith("# PARTIAL RESULTS: the jars of the application"
+                + " classloader could not be found before the deadline.\n"));
+        for (String line : out.toString().split("\n")) {
+            assertTrue(line, line.startsWith("#"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class ClassLoadRecorderTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final ClassLoader loader = new URLClassLoader(new URL[0], null);
+
+    @Test
+    public void recordsNewClassesInTheOrderOfLoading() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(10, 1);
+        ProtectionDomain jar = domain(temp.newFile("order.jar").toURI().toURL());
+        recorder.transform(loader, "order/B", null, jar, new byte[0]);
+        recorder.transform(loader, "order/A", null, jar, new byte[0]);
+        // the same class defined again, a redefinition and a class of the bootstrap classloader
+        recorder.transform(loader, "order/B", null, jar, new byte[0]);
+        recorder.transform(loader, "order/C", String.class, jar, new byte[0]);
+        recorder.transform(null, "order/D", null, jar, new byte[0]);
+
+        assertEquals(Arrays.asList("order.B", "order.A"), recorder.snapshot().get(loader));
+        assertEquals(Arrays.asList(loader), recorder.getClassLoaders());
+        assertEquals(2, recorder.getRecordedCount());
+    }
+
+    @Test
+    public void returnsTheClassesRecordedSinceAPosition() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(10, 1);
+        URL location = temp.newFile("since.jar").toURI().toURL();
+        for (int i = 0; i < 100; i++) {
+            recorder.transform(loader, "since/C" + i, null, domain(location), new byte[0]);
+        }
+        recorder.transform(loader, "since/Generated", null, null, new byte[0]);
+
+        List<String> classNames = new ArrayList<String>();
+        List<String> locations = new ArrayList<String>();
+        assertEquals(101, recorder.getRecordedSince(loader, 90, classNames, locations));
+        assertEquals(11, classNames.size());
+        assertEquals("since.C90", classNames.get(0));
+        assertEquals("since.Generated", classNames.get(10));
+        assertEquals(location.toString(), locations.get(0));
+        assertNull(locations.get(10));
+
+        assertEquals(0, recorder.getRecordedSince(new URLClassLoader(new URL[0], null), 0, classNames, locations));
+        assertEquals(100, recorder.getClassNamesByLocation(loader).get(location.toString()).size());
+    }
+
+    @Test
+    public void capsTheScriptsOfMadeUpLocations() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(2, 1);
+        ProtectionDomain script = domain(new URL("file:/groovy/script"));
+        for (int i = 0; i < 5; i++) {
+            recorder.transform(loader, "Script" + i, null, script, new byte[0]);
+        }
+
+        assertEquals(2, recorder.getRecordedCount());
+        assertEquals(3, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void recordsEveryClassOfARealLocation() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(2, 1);
+        URL location = temp.newFile("lib.jar").toURI().toURL();
+        for (int i = 0; i < 5; i++) {
+            recorder.transform(loader, "recorded/C" + i, null, domain(location), new byte[0]);
+        }
+
+        assertEquals(5, recorder.getRecordedCount());
+        assertEquals(0, recorder.getDroppedCount());
+        Map<String, List<String>> byLocation = recorder.getClassNamesByLocation(loader);
+        assertEquals(5, byLocation.get(location.toString()).size());
+    }
+
+    @Test
+    public void checksEachLocationOnce() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(0, 1);
+        File jar = temp.newFile("once.jar");
+        File script = new File(temp.getRoot(), "script");
+        ProtectionDomain real = domain(jar.toURI().toURL());
+        ProtectionDomain madeUp = domain(script.toURI().toURL());
+        recorder.transform(loader, "once/Real0", null, real, new byte[0]);
+        recorder.transform(loader, "Script0", null, madeUp, new byte[0]);
+
+        // neither location is looked at again by the same classloader
+        assertTrue(jar.delete());
+        assertTrue(script.createNewFile());
+        recorder.transform(loader, "once/Real1", null, real, new byte[0]);
+        recorder.transform(loader, "Script1", null, madeUp, new byte[0]);
+        assertEquals(2, recorder.getRecordedCount());
+        assertEquals(2, recorder.getDroppedCount());
+
+        // another classloader sees them as they are now
+        ClassLoader other = new URLClassLoader(new URL[0], null);
+        recorder.transform(other, "Script2", null, madeUp, new byte[0]);
+        assertEquals(3, recorder.getRecordedCount());
+    }
+
+    @Test
+    public void takesTheLocationsPastTheLimitToBeMadeUp() throws IOException {
+        ClassLoadRecorder recorder = new ClassLoadRecorder(0, 1);
+        File directory = temp.newFolder("locations");
+        for (int i = 0; i <= ClassLoadRecorder.MAX_LOCATIONS; i++) {
+            File location = new File(directory, "lib" + i + ".jar");
+            assertTrue(location.createNewFile());
+            recorder.transform(loader, "limit/C" + i, null, domain(location.toURI().toURL()), new byte[0]);
+        }
+
+        assertEquals(ClassLoadRecorder.MAX_LOCATIONS, recorder.getRecordedCount());
+        assertEquals(1, recorder.getDroppedCount());
+    }
+
+    private static ProtectionDomain domain(URL location) {
+        return new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null);
+    }
+}
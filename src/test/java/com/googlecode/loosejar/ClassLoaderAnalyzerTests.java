@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.loosejar.output.CSVFormatSummarizer;
+import com.googlecode.loosejar.output.JsonSummarizer;
+import com.googlecode.loosejar.output.VerbalSummarizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class ClassLoaderAnalyzerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void analyzesBeforeTheDeadline() throws IOException {
+        URLClassLoader loader = loader("analyzed.jar");
+        List<ClassLoaderAnalyzer> analyzers =
+                ClassLoaderAnalyzer.analyzeAll(map(loader), System.nanoTime() + 60000000000L);
+
+        assertEquals(1, analyzers.size());
+        assertFalse(analyzers.get(0).isSkipped());
+        assertEquals(1, analyzers.get(0).getJars().size());
+        assertEquals(1, analyzers.get(0).getJars().get(0).getLoadedClassCount());
+
+        StringBuilder out = new StringBuilder();
+        new VerbalSummarizer().summarize(analyzers, out);
+        assertFalse(out.toString().contains("PARTIAL RESULTS"));
+        loader.close();
+    }
+
+    @Test
+    public void marksTheClassLoadersDroppedAtTheDeadline() throws IOException {
+        URLClassLoader loader = loader("dropped.jar");
+        List<ClassLoaderAnalyzer> analyzers = ClassLoaderAnalyzer.analyzeAll(map(loader), System.nanoTime() - 1);
+
+        assertEquals(1, analyzers.size());
+        assertTrue(analyzers.get(0).isSkipped());
+        assertTrue(analyzers.get(0).getJars().isEmpty());
+
+        StringBuilder verbal = new StringBuilder();
+        new VerbalSummarizer().summarize(analyzers, verbal);
+        assertTrue(verbal.toString(), verbal.toString().contains(
+                "PARTIAL RESULTS: 0 jar(s) and 1 classloader(s) could not be analyzed before the deadline."));
+
+        StringBuilder csv = new StringBuilder();
+        new CSVFormatSummarizer().summarize(analyzers, csv);
+        assertTrue(csv.toString(), csv.toString().contains(
+                "\"java.net.URLClassLoader\",\"\",\"not analyzed\""));
+
+        StringBuilder json = new StringBuilder();
+        new JsonSummarizer(true).summarize(analyzers, json);
+        String[] records = json.toString().split("\n");
+        assertEquals(2, records.length);
+        assertTrue(records[0], records[0].startsWith("{\"record\":\"classLoader\",\"classLoader\":\"java.net.URLClassLoader@"));
+        assertTrue(records[0], records[0].endsWith("\"analyzed\":false}"));
+        assertEquals("{\"record\":\"summary\",\"partial\":true,\"skippedJars\":0,\"skippedClassLoaders\":1}",
+                records[1]);
+        loader.close();
+    }
+
+    @Test
+    public void resolvesReferencesThroughTheParents() throws IOException {
+        Class<?> referring = ClassReferencesTests.Referring.class;
+        Class<?> referred = ClassReferencesTests.Referred.class;
+        File parentJar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored(entryName(referred), classFile(referred))
+                .stored("reachability/Unused.class", new byte[1])
+                .write(temp.newFile("parent.jar"));
+        File childJar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored(entryName(referring), classFile(referring))
+                .write(temp.newFile("child.jar"));
+        URLClassLoader parent = new URLClassLoader(new URL[]{parentJar.toURI().toURL()}, null);
+        URLClassLoader child = new URLClassLoader(new URL[]{childJar.toURI().toURL()}, parent);
+
+        // the child comes first, so its references are known only after the parent is analyzed
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(child, Arrays.asList(referring.getName()));
+        map.put(parent, Collections.<String>emptyList());
+
+        System.setProperty("loosejar.reachability", "true");
+        try {
+            List<ClassLoaderAnalyzer> analyzers = new ArrayList<ClassLoaderAnalyzer>();
+            for (ClassLoaderAnalyzer analyzer : ClassLoaderAnalyzer.analyzeAll(map)) {
+                analyzers.add(analyzer);
+            }
+            assertEquals(Arrays.asList(childJar), jarFiles(analyzers.get(0)));
+            assertEquals(Arrays.asList(parentJar), jarFiles(analyzers.get(1)));
+            JarArchive parentArchive = analyzers.get(1).getJars().get(0);
+            assertEquals(1, parentArchive.getReachableClassCount());
+            assertEquals(1, parentArchive.getUnreachableClassCount());
+
+            List<ClassLoaderAnalyzer> bounded =
+                    ClassLoaderAnalyzer.analyzeAll(map, System.nanoTime() + 60000000000L);
+            assertEquals(1, bounded.get(1).getJars().get(0).getReachableClassCount());
+        } finally {
+            System.clearProperty("loosejar.reachability");
+            child.close();
+            parent.close();
+        }
+    }
+
+    private static List<File> jarFiles(ClassLoaderAnalyzer analyzer) {
+        List<File> files = new ArrayList<File>();
+        for (JarArchive jar : analyzer.getJars()) {
+            files.add(jar.getJar());
+        }
+        return files;
+    }
+
+    private static String entryName(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    private static byte[] classFile(Class<?> c) throws IOException {
+        ByteBuffer classFile = ClassReferencesTests.classFile(c);
+        byte[] bytes = new byte[classFile.remaining()];
+        classFile.get(bytes);
+        return bytes;
+    }
+
+    private URLClassLoader loader(String name) throws IOException {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("deadline/A.class", new byte[1])
+                .stored("deadline/B.class", new byte[1])
+                .write(temp.newFile(name));
+        return new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+    }
+
+    private static Map<ClassLoader, List<String>> map(ClassLoader loader) {
+        Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(loader, Arrays.asList("deadline.A"));
+        return map;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The dictionary is process-wide, so every test uses names of its own.
+ *
+ * @author Kyrill Alyoshin
+ */
+public class ClassNameDictionaryTests {
+    private final ClassNameDictionary dictionary = ClassNameDictionary.getInstance();
+
+    @Test
+    public void internsEachNameOnce() {
+        int id = dictionary.intern("test.once.Name");
+        assertEquals(id, dictionary.intern("test.once.Name"));
+        assertEquals(id, dictionary.lookup("test.once.Name"));
+        assertEquals("test.once.Name", dictionary.name(id));
+        assertTrue(id < dictionary.size());
+    }
+
+    @Test
+    public void looksUpWithoutInterning() {
+        assertEquals(-1, dictionary.lookup("test.lookup.Missing"));
+        assertEquals(-1, dictionary.lookup("test.lookup.never.interned.Package"));
+        assertEquals(-1, dictionary.lookup("test.lookup.Missing"));
+    }
+
+    @Test
+    public void distinguishesSimilarNames() {
+        int[] ids = dictionary.internEach(Arrays.asList("test.similar.Ab", "test.similar.Ba", "test.similarA.b",
+                "test.similar.A.b", "test.similar.Ab$1", "test.similar.ab"));
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = i + 1; j < ids.length; j++) {
+                assertTrue(ids[i] != ids[j]);
+            }
+        }
+        assertEquals("test.similar.A.b", dictionary.name(ids[3]));
+    }
+
+    @Test
+    public void keepsPackagesApart() {
+        int a = dictionary.intern("test.pkg.one.Same");
+        int b = dictionary.intern("test.pkg.two.Same");
+        assertTrue(a != b);
+        assertTrue(dictionary.packageOf(a) != dictionary.packageOf(b));
+        assertEquals("test.pkg.one", dictionary.packageName(dictionary.packageOf(a)));
+        assertEquals(dictionary.packageOf(a), dictionary.packageOf(dictionary.intern("test.pkg.one.Other")));
+    }
+
+    @Test
+    public void internsTheDefaultPackage() {
+        int id = dictionary.intern("TestDefaultPackageName");
+        assertEquals("", dictionary.packageName(dictionary.packageOf(id)));
+        assertEquals("TestDefaultPackageName", dictionary.name(id));
+    }
+
+    @Test
+    public void roundTripsNamesOutsideOfAscii() {
+        String[] names = {"test.unicode.Café", "test.unicode.中文", "test.ümläut.X",
+                "test.unicode.Emoji😀", "test.unicode.Cafè"};
+        for (String name : names) {
+            int id = dictionary.intern(name);
+            assertEquals(name, dictionary.name(id));
+            assertEquals(id, dictionary.lookup(name));
+        }
+        assertTrue(dictionary.lookup("test.unicode.Café") != dictionary.lookup("test.unicode.Cafè"));
+    }
+
+    @Test
+    public void survivesGrowth() {
+        int[] ids = new int[20000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.intern("test.growth.p" + (i % 700) + ".Class" + i);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            String name = "test.growth.p" + (i % 700) + ".Class" + i;
+            assertEquals(ids[i], dictionary.lookup(name));
+            StringBuilder buf = new StringBuilder();
+            dictionary.appendName(ids[i], buf);
+            assertEquals(name, buf.toString());
+        }
+    }
+
+    @Test
+    public void internsAllInAscendingOrder() {
+        int late = dictionary.intern("test.all.Z");
+        int[] ids = dictionary.internAll(Arrays.asList("test.all.Z", "test.all.A", "test.all.M"));
+        assertEquals(3, ids.length);
+        assertTrue(ids[0] < ids[1] && ids[1] < ids[2]);
+        assertEquals(late, ids[0]);
+    }
+}
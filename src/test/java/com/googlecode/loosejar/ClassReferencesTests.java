@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class ClassReferencesTests {
+
+    @Test
+    public void findsTheClassesReferredTo() throws IOException {
+        Set<String> references = new HashSet<String>();
+        ClassReferences.read(classFile(Referring.class), references);
+
+        assertTrue(references.contains(Referring.class.getName()));
+        assertTrue(references.contains(Referred.class.getName()));
+        assertTrue(references.contains(Runnable.class.getName()));
+        assertTrue(references.contains(List.class.getName()));
+        assertTrue(references.contains(StringBuilder.class.getName()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWhatIsNotAClassFile() throws IOException {
+        ClassReferences.read(ByteBuffer.wrap(ZipBuilder.data(64)), new HashSet<String>());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedClassFile() throws IOException {
+        ByteBuffer classFile = classFile(Referring.class);
+        classFile.limit(classFile.limit() / 2);
+        ClassReferences.read(classFile.slice(), new HashSet<String>());
+    }
+
+    static ByteBuffer classFile(Class<?> c) throws IOException {
+        String name = c.getName();
+        InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    static class Referred {
+    }
+
+    static class Referring extends Referred implements Runnable {
+        List<String> names;
+
+        public void run() {
+            names.add(new StringBuilder().append(names.size()).toString());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class JarArchiveTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void weighsTheClassesByTheirBytes() throws IOException {
+        File file = new ZipBuilder()
+                .stored("weight/Big.class", ZipBuilder.data(3000))
+                .stored("weight/Small.class", ZipBuilder.data(1000))
+                .stored("weight/notes.txt", ZipBuilder.data(500))
+                .write(temp.newFile("weight.jar"));
+        JarArchive jar = archive(file, "weight.Small");
+
+        assertEquals(50.0, jar.getUsagePercentage(), 0.001);
+        assertEquals(25.0, jar.getSizeUsagePercentage(), 0.001);
+        assertEquals(4000, jar.getClassesSize());
+        assertEquals(1000, jar.getLoadedClassesSize());
+        assertEquals(3000, jar.getUnusedClassesSize());
+        assertEquals(4000, jar.getCompressedClassesSize());
+        assertEquals(3000, jar.getReclaimableSize());
+
+        jar.addLoadedClasses(new int[]{ClassNameDictionary.getInstance().lookup("weight.Big")});
+        assertEquals(100.0, jar.getSizeUsagePercentage(), 0.001);
+        assertEquals(0, jar.getUnusedClassesSize());
+        assertEquals(0, jar.getReclaimableSize());
+    }
+
+    @Test
+    public void reclaimsTheCompressedBytes() throws IOException {
+        File file = new ZipBuilder()
+                .deflated("packed/Used.class", ZipBuilder.data(2000))
+                .deflated("packed/Unused.class", ZipBuilder.data(6000))
+                .write(temp.newFile("packed.jar"));
+        long used;
+        long unused;
+        ZipFile zip = new ZipFile(file);
+        try {
+            used = zip.getEntry("packed/Used.class").getCompressedSize();
+            unused = zip.getEntry("packed/Unused.class").getCompressedSize();
+        } finally {
+            zip.close();
+        }
+        JarArchive jar = archive(file, "packed.Used");
+
+        assertEquals(8000, jar.getClassesSize());
+        assertEquals(2000, jar.getLoadedClassesSize());
+        assertEquals(used + unused, jar.getCompressedClassesSize());
+        assertEquals(unused, jar.getReclaimableSize());
+        assertTrue(jar.getReclaimableSize() < jar.getUnusedClassesSize());
+    }
+
+    @Test
+    public void weighsAJarWithoutClassesAsUnused() throws IOException {
+        File file = new ZipBuilder().stored("empty/notes.txt", new byte[1]).write(temp.newFile("empty.jar"));
+        JarArchive jar = new JarArchive(file, JarRegistry.getInstance().get(file));
+
+        assertEquals(0.0, jar.getUsagePercentage(), 0);
+        assertEquals(0.0, jar.getSizeUsagePercentage(), 0);
+        assertEquals(0, jar.getReclaimableSize());
+    }
+
+    private static JarArchive archive(File file, String loadedClass) {
+        JarArchive jar = new JarArchive(file, JarRegistry.getInstance().get(file));
+        BitSet loaded = new BitSet();
+        loaded.set(ClassNameDictionary.getInstance().lookup(loadedClass));
+        jar.setLoadedClasses(loaded);
+        return jar;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class JarIndexCacheTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private JarIndexCache cache;
+    private File jar;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new JarIndexCache(temp.newFolder("index"));
+        jar = new ZipBuilder().stored("x", new byte[1]).write(temp.newFile("lib.jar"));
+    }
+
+    @Test
+    public void missesAJarWhichHasNotBeenIndexed() {
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void returnsTheStoredClassesSortedByName() {
+        ClassEntries classes = new ClassEntries();
+        // names sharing prefixes of every length, names outside of ASCII and sizes of every varint length
+        classes.add("org.example.util.Strings", 1, 1);
+        classes.add("org.example.Main", 127, 128);
+        classes.add("org.example.Main$1", 16383, 16384);
+        classes.add("Default", 0, 0);
+        classes.add("org.examplé.中文", 2097152, 268435456);
+        classes.add("org.example.util.Strings$Builder", Integer.MAX_VALUE, 3);
+        cache.put(jar, classes);
+
+        ClassEntries cached = cache.get(jar);
+        assertEquals(6, cached.size());
+        String[] names = {"Default", "org.example.Main", "org.example.Main$1", "org.example.util.Strings",
+                "org.example.util.Strings$Builder", "org.examplé.中文"};
+        int[] sizes = {0, 127, 16383, 1, Integer.MAX_VALUE, 2097152};
+        int[] compressedSizes = {0, 128, 16384, 1, 3, 268435456};
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], cached.name(i));
+            assertEquals(sizes[i], cached.size(i));
+            assertEquals(compressedSizes[i], cached.compressedSize(i));
+        }
+    }
+
+    @Test
+    public void storesAJarWithoutClasses() {
+        cache.put(jar, new ClassEntries());
+        assertEquals(0, cache.get(jar).size());
+    }
+
+    @Test
+    public void missesAJarWhichHasChanged() throws IOException {
+        ClassEntries classes = new ClassEntries();
+        classes.add("a.A", 1, 1);
+        cache.put(jar, classes);
+
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        assertNull(cache.get(jar));
+
+        cache.put(jar, classes);
+        OutputStream out = new FileOutputStream(jar, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void missesAnotherJar() throws IOException {
+        ClassEntries classes = new ClassEntries();
+        classes.add("a.A", 1, 1);
+        cache.put(jar, classes);
+
+        File other = new ZipBuilder().stored("x", new byte[1]).write(temp.newFile("other.jar"));
+        assertTrue(other.setLastModified(jar.lastModified()));
+        assertNull(cache.get(other));
+    }
+
+    @Test
+    public void treatsABrokenIndexAsAMiss() throws IOException {
+        ClassEntries classes = new ClassEntries();
+        classes.add("a.A", 1, 1);
+        cache.put(jar, classes);
+
+        File[] indexes = new File(temp.getRoot(), "index").listFiles();
+        assertEquals(1, indexes.length);
+        // keep the header and the path, lose the classes
+        byte[] truncated = new byte[(int) indexes[0].length() - 4];
+        RandomAccessFile file = new RandomAccessFile(indexes[0], "rw");
+        try {
+            file.readFully(truncated);
+            file.setLength(truncated.length);
+        } finally {
+            file.close();
+        }
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void rejectsANameLongerThanTheIndex() throws IOException {
+        // a suffix length of Integer.MAX_VALUE must not be allocated
+        corruptClasses(1, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 'a');
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void rejectsASharedPrefixLongerThanThePreviousName() throws IOException {
+        corruptClasses(1, 5, 1, 'a', 1, 1);
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void rejectsAVarIntLongerThanFiveBytes() throws IOException {
+        corruptClasses(0x81, 0x80, 0x80, 0x80, 0x80, 0x00);
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void rejectsANegativeCount() throws IOException {
+        corruptClasses(0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertNull(cache.get(jar));
+    }
+
+    /**
+     * Index the jar, then replace everything from the class count onwards with the supplied bytes.
+     */
+    private void corruptClasses(int... classes) throws IOException {
+        cache.put(jar, new ClassEntries());
+        File index = new File(temp.getRoot(), "index").listFiles()[0];
+        byte[] data = new byte[(int) index.length()];
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        try {
+            file.readFully(data);
+            // magic, version, path length (a varint), path, length, last modified
+            int offset = 8;
+            int pathLength = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[offset++];
+                pathLength |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            file.setLength(offset + pathLength + 16);
+            file.seek(offset + pathLength + 16);
+            for (int b : classes) {
+                file.write(b);
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
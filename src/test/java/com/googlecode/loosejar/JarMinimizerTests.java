@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class JarMinimizerTests {
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void keepsTheLoadedClassesTheirVersionsAndTheModuleDescriptor() throws IOException {
+        Map<String, byte[]> entries = multiReleaseEntries();
+        File jar = write(temp.newFile("lib.jar"), entries);
+        File target = new File(temp.getRoot(), "min.jar");
+
+        new JarMinimizer(false, false).minimize(jar, Collections.singleton("min.A"), target);
+
+        Map<String, byte[]> minimized = read(target);
+        assertEquals(new HashSet<String>(Arrays.asList(MANIFEST, "module-info.class", "min/A.class",
+                "META-INF/versions/11/min/A.class", "META-INF/versions/9/module-info.class")), minimized.keySet());
+        for (Map.Entry<String, byte[]> entry : minimized.entrySet()) {
+            assertArrayEquals(entry.getKey(), entries.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void keepsTheResourcesOnRequest() throws IOException {
+        Map<String, byte[]> entries = multiReleaseEntries();
+        File jar = write(temp.newFile("lib.jar"), entries);
+        File target = new File(temp.getRoot(), "min.jar");
+
+        new JarMinimizer(true, false).minimize(jar, Collections.<String>emptySet(), target);
+
+        Map<String, byte[]> minimized = read(target);
+        assertEquals(new HashSet<String>(Arrays.asList(MANIFEST, "module-info.class", "min/resource.txt",
+                "META-INF/versions/9/module-info.class")), minimized.keySet());
+    }
+
+    @Test
+    public void keepsTheClassesReferredToAcrossJars() throws IOException {
+        Map<String, byte[]> referring = new LinkedHashMap<String, byte[]>();
+        referring.put(MANIFEST, "Manifest-Version: 1.0\n".getBytes("UTF-8"));
+        referring.put(entryName(ClassReferencesTests.Referring.class), bytes(ClassReferencesTests.Referring.class));
+        referring.put("min/Unused.class", ZipBuilder.data(100));
+        File referringJar = write(temp.newFile("referring.jar"), referring);
+
+        Map<String, byte[]> referred = new LinkedHashMap<String, byte[]>();
+        referred.put(entryName(ClassReferencesTests.Referred.class), bytes(ClassReferencesTests.Referred.class));
+        referred.put("min/Unused.class", ZipBuilder.data(100));
+        File referredJar = write(temp.newFile("referred.jar"), referred);
+
+        File snapshot = temp.newFile("usage.txt");
+        Writer out = new OutputStreamWriter(new FileOutputStream(snapshot));
+        try {
+            out.write("# loosejar usage 1\n");
+            // the jars are sorted by path, as in any snapshot
+            out.write("jar 2 " + referredJar.getPath() + "\n");
+            out.write("jar 2 " + referringJar.getPath() + "\n");
+            out.write("  " + ClassReferencesTests.Referring.class.getName() + "\n");
+        } finally {
+            out.close();
+        }
+
+        File targetDirectory = temp.newFolder("min");
+        assertEquals(2, new JarMinimizer(false, true).minimize(snapshot, targetDirectory).size());
+
+        assertEquals(new HashSet<String>(Arrays.asList(MANIFEST, entryName(ClassReferencesTests.Referring.class))),
+                read(target(targetDirectory, referringJar)).keySet());
+        assertEquals(Collections.singleton(entryName(ClassReferencesTests.Referred.class)),
+                read(target(targetDirectory, referredJar)).keySet());
+    }
+
+    private static Map<String, byte[]> multiReleaseEntries() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put(MANIFEST, "Manifest-Version: 1.0\nMulti-Release: true\n".getBytes("UTF-8"));
+        entries.put("module-info.class", ZipBuilder.data(50));
+        entries.put("min/A.class", ZipBuilder.data(300));
+        entries.put("min/B.class", ZipBuilder.data(200));
+        entries.put("min/resource.txt", ZipBuilder.data(10));
+        entries.put("META-INF/versions/9/module-info.class", ZipBuilder.data(60));
+        entries.put("META-INF/versions/11/min/A.class", ZipBuilder.data(310));
+        entries.put("META-INF/versions/11/min/B.class", ZipBuilder.data(210));
+        return entries;
+    }
+
+    /**
+     * Write the entries with a ZipOutputStream, which follows each of them with a data descriptor.
+     */
+    private static File write(File jar, Map<String, byte[]> entries) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    /**
+     * Read all the entries of a jar, which checks their sizes and checksums as well.
+     */
+    private static Map<String, byte[]> read(File jar) throws IOException {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        JarFile jarFile = new JarFile(jar);
+        try {
+            for (Enumeration<? extends ZipEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                InputStream in = jarFile.getInputStream(entry);
+                try {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        data.write(buffer, 0, n);
+                    }
+                    entries.put(entry.getName(), data.toByteArray());
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return entries;
+    }
+
+    private static File target(File targetDirectory, File jar) {
+        return new File(targetDirectory, jar.getAbsolutePath().replace(":", ""));
+    }
+
+    private static String entryName(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    private static byte[] bytes(Class<?> c) throws IOException {
+        ByteBuffer classFile = ClassReferencesTests.classFile(c);
+        byte[] bytes = new byte[classFile.remaining()];
+        classFile.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class JarRegistryTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final JarRegistry registry = JarRegistry.getInstance();
+
+    @Test
+    public void sharesTheIndexButNotThePath() throws IOException {
+        File jar = new ZipBuilder().stored("reg/shared/A.class", new byte[1]).write(temp.newFile("lib.jar"));
+        File link = new File(temp.getRoot(), "link.jar");
+        Files.createSymbolicLink(link.toPath(), jar.toPath());
+
+        JarIndex index = registry.get(jar);
+        assertSame(index, registry.get(link));
+
+        BitSet loaded = new BitSet();
+        loaded.set(ClassNameDictionary.getInstance().lookup("reg.shared.A"));
+        JarArchive viaLink = new JarArchive(link, registry.get(link));
+        viaLink.setLoadedClasses(loaded);
+        assertEquals(link, viaLink.getJar());
+        assertEquals(1, viaLink.getLoadedClassCount());
+        assertEquals(jar, new JarArchive(jar, index).getJar());
+    }
+
+    @Test
+    public void rescansAReplacedJar() throws IOException {
+        File jar = new ZipBuilder().stored("reg/replaced/A.class", new byte[1]).write(temp.newFile("lib.jar"));
+        JarIndex index = registry.get(jar);
+
+        new ZipBuilder().stored("reg/replaced/A.class", new byte[1]).stored("reg/replaced/B.class", new byte[1])
+                .write(jar);
+        assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+        JarIndex rescanned = registry.get(jar);
+        assertNotSame(index, rescanned);
+        assertEquals(2, rescanned.getClassIds().length);
+    }
+
+    @Test
+    public void walksADirectoryEveryTime() throws IOException {
+        File directory = temp.newFolder("classes");
+        File pkg = new File(directory, "reg/dir");
+        assertTrue(pkg.mkdirs());
+        assertTrue(new File(pkg, "A.class").createNewFile());
+        assertEquals(1, registry.get(directory).getClassIds().length);
+
+        // a new class deep in the tree changes neither the length nor the time of the directory
+        long lastModified = directory.lastModified();
+        assertTrue(new File(pkg, "B.class").createNewFile());
+        assertTrue(directory.setLastModified(lastModified));
+        assertEquals(2, registry.get(directory).getClassIds().length);
+    }
+
+    @Test
+    public void prunesDeletedJars() throws IOException {
+        File jar = new ZipBuilder().stored("reg/deleted/A.class", new byte[1]).write(temp.newFile("lib.jar"));
+        JarIndex index = registry.get(jar);
+        registry.prune();
+        assertSame(index, registry.get(jar));
+
+        assertTrue(jar.delete());
+        registry.prune();
+        new ZipBuilder().stored("reg/deleted/A.class", new byte[1]).write(jar);
+        assertNotSame(index, registry.get(jar));
+    }
+}
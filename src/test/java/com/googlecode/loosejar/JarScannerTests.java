@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class JarScannerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void returnsTheArchivesInTheSuppliedOrder() throws IOException {
+        List<File> jars = new ArrayList<File>();
+        for (int i = 0; i < 20; i++) {
+            ZipBuilder zip = new ZipBuilder();
+            for (int j = 0; j <= i; j++) {
+                zip.stored("scan/order" + i + "/C" + j + ".class", new byte[1]);
+            }
+            jars.add(zip.write(temp.newFile("lib" + i + ".jar")));
+        }
+
+        List<JarArchive> archives = JarScanner.scan(jars);
+        assertEquals(jars.size(), archives.size());
+        for (int i = 0; i < jars.size(); i++) {
+            assertEquals(jars.get(i), archives.get(i).getJar());
+            assertEquals(i + 1, archives.get(i).getClassCount());
+        }
+    }
+
+    @Test
+    public void leavesOutJarsWhichCannotBeRead() throws IOException {
+        File first = new ZipBuilder().stored("scan/bad/A.class", new byte[1]).write(temp.newFile("first.jar"));
+        File broken = temp.newFile("broken.jar");
+        File missing = new File(temp.getRoot(), "missing.jar");
+        File last = new ZipBuilder().stored("scan/bad/B.class", new byte[1]).write(temp.newFile("last.jar"));
+
+        List<JarArchive> archives = JarScanner.scan(Arrays.asList(first, broken, missing, last));
+        assertEquals(2, archives.size());
+        assertEquals(first, archives.get(0).getJar());
+        assertEquals(last, archives.get(1).getJar());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class LooseJarAgentTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        System.clearProperty("loosejar.format");
+        System.clearProperty("loosejar.outputFile");
+    }
+
+    @Test
+    public void reportsOnceAndLeavesNothingBehind() throws Exception {
+        Class<?> referred = ClassReferencesTests.Referred.class;
+        ByteBuffer classFile = ClassReferencesTests.classFile(referred);
+        byte[] bytes = new byte[classFile.remaining()];
+        classFile.get(bytes);
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored(referred.getName().replace('.', '/') + ".class", bytes)
+                .stored("attach/Unused.class", new byte[1])
+                .write(temp.newFile("attach.jar"));
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        final Class<?> loaded = loader.loadClass(referred.getName());
+
+        final List<String> calls = new ArrayList<String>();
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        calls.add(method.getName());
+                        if (method.getName().equals("getAllLoadedClasses")) {
+                            return new Class<?>[]{loaded};
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        File report = new File(temp.getRoot(), "report.csv");
+        System.setProperty("loosejar.format", "verbal");
+        LooseJarAgent.agentmain("format=csv,outputFile=" + report.getPath(), instrumentation);
+
+        String csv = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+        assertTrue(csv, csv.contains("\"" + jar.getPath() + "\",\"50.00%\""));
+        // no transformer, nothing but a look at the loaded classes
+        assertEquals(Arrays.asList("getAllLoadedClasses"), calls);
+        // the arguments applied to the report only
+        assertEquals("verbal", System.getProperty("loosejar.format"));
+        assertNull(System.getProperty("loosejar.outputFile"));
+        // and the data built for it has been dropped
+        assertEquals(0, ClassNameDictionary.getInstance().size());
+        assertEquals(-1, ClassNameDictionary.getInstance().lookup("attach.Unused"));
+        loader.close();
+    }
+
+    @Test
+    public void turnsAgentArgumentsIntoProperties() {
+        System.setProperty("loosejar.format", "verbal");
+        LooseJarAgent.applyAgentArgs("format=csv, outputFile = out.txt ,,");
+        assertEquals("verbal", System.getProperty("loosejar.format"));
+        assertEquals("out.txt", System.getProperty("loosejar.outputFile"));
+    }
+}
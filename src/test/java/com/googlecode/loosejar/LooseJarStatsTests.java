@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class LooseJarStatsTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final List<Class<?>> loaded = new ArrayList<Class<?>>();
+    private URLClassLoader loader;
+    private Instrumentation instrumentation;
+
+    @Before
+    public void setUp() throws Exception {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored(entryName(ClassReferencesTests.Referred.class), classFile(ClassReferencesTests.Referred.class))
+                .stored(entryName(ClassReferencesTests.Referring.class), classFile(ClassReferencesTests.Referring.class))
+                .stored("stats/Unused.class", new byte[1])
+                .write(temp.newFile("stats.jar"));
+        loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        loaded.add(loader.loadClass(ClassReferencesTests.Referred.class.getName()));
+
+        // all the analysis needs of the instrumentation are the loaded classes
+        instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getAllLoadedClasses")) {
+                            synchronized (loaded) {
+                                return loaded.toArray(new Class<?>[loaded.size()]);
+                            }
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty("loosejar.jmxTtl");
+        loader.close();
+    }
+
+    @Test
+    public void servesTheSnapshotUntilItIsRefreshed() throws Exception {
+        LooseJarStats stats = new LooseJarStats(instrumentation);
+        assertEquals(60, stats.getTimeToLive());
+        CompositeData jar = onlyRow(stats.getJars());
+        assertEquals(1, jar.get("loadedClasses"));
+        assertEquals(3, jar.get("totalClasses"));
+        assertEquals(100.0 / 3, (Double) jar.get("utilization"), 0.01);
+        CompositeData classLoader = onlyRow(stats.getClassLoaders());
+        assertEquals(URLClassLoader.class.getName(), classLoader.get("name"));
+        assertEquals(jar.get("classLoaderId"), classLoader.get("id"));
+
+        addLoaded(ClassReferencesTests.Referring.class);
+        assertEquals(1, onlyRow(stats.getJars()).get("loadedClasses"));
+
+        stats.refresh();
+        assertEquals(2, onlyRow(stats.getJars()).get("loadedClasses"));
+        assertEquals(2, onlyRow(stats.getClassLoaders()).get("loadedClasses"));
+    }
+
+    @Test
+    public void refreshesAnExpiredSnapshotInTheBackground() throws Exception {
+        System.setProperty("loosejar.jmxTtl", "0");
+        LooseJarStats stats = new LooseJarStats(instrumentation);
+        long first = stats.getSnapshotTime().getTime();
+        addLoaded(ClassReferencesTests.Referring.class);
+        Thread.sleep(5);
+
+        // the expired snapshot is still served while the new one is being taken
+        assertEquals(first, stats.getSnapshotTime().getTime());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stats.getSnapshotTime().getTime() == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, onlyRow(stats.getJars()).get("loadedClasses"));
+    }
+
+    @Test
+    public void reportsNoRecordingWithoutARecorder() {
+        LooseJarStats stats = new LooseJarStats(instrumentation);
+        assertEquals(-1, stats.getRecordedClasses());
+        assertEquals(-1, stats.getDroppedGeneratedClasses());
+        assertEquals(-1, stats.getRecordingOverheadMillis(), 0);
+    }
+
+    private void addLoaded(Class<?> c) throws ClassNotFoundException {
+        synchronized (loaded) {
+            loaded.add(loader.loadClass(c.getName()));
+        }
+    }
+
+    private static CompositeData onlyRow(TabularData data) {
+        assertEquals(1, data.size());
+        return (CompositeData) data.values().iterator().next();
+    }
+
+    private static String entryName(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    private static byte[] classFile(Class<?> c) throws IOException {
+        ByteBuffer classFile = ClassReferencesTests.classFile(c);
+        byte[] bytes = new byte[classFile.remaining()];
+        classFile.get(bytes);
+        return bytes;
+    }
+}
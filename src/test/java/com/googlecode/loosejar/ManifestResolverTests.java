@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class ManifestResolverTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void subtractsAsAMultiset() {
+        assertEquals(Arrays.asList("b", "a"),
+                ManifestResolver.subtract(Arrays.asList("a", "b", "a", "c"), Arrays.asList("a", "c", "d")));
+        assertEquals(Collections.<String>emptyList(),
+                ManifestResolver.subtract(Arrays.asList("a", "a"), Arrays.asList("a", "a", "a")));
+    }
+
+    @Test
+    public void leavesOutTheManifestsOfTheParent() throws IOException {
+        URL parentJar = jar("parent.jar");
+        URL childJar = jar("child.jar");
+        CountingClassLoader parent = new CountingClassLoader(parentJar, null);
+        CountingClassLoader child = new CountingClassLoader(childJar, parent);
+
+        ManifestResolver resolver = new ManifestResolver();
+        assertEquals(Arrays.asList(manifest(childJar)), resolver.getOwnResources(child));
+        assertEquals(Arrays.asList(manifest(parentJar)), resolver.getOwnResources(parent));
+        child.close();
+        parent.close();
+    }
+
+    @Test
+    public void enumeratesEachClassLoaderOnce() throws IOException {
+        CountingClassLoader parent = new CountingClassLoader(jar("shared.jar"), null);
+        CountingClassLoader first = new CountingClassLoader(jar("first.jar"), parent);
+        CountingClassLoader second = new CountingClassLoader(jar("second.jar"), parent);
+
+        ManifestResolver resolver = new ManifestResolver();
+        resolver.getOwnResources(first);
+        resolver.getOwnResources(second);
+        resolver.getOwnResources(parent);
+        resolver.getOwnResources(first);
+        // the parent is enumerated once of its own and once on behalf of each child
+        assertEquals(3, parent.enumerations);
+        assertEquals(1, first.enumerations);
+        assertEquals(1, second.enumerations);
+
+        // a resolver lives for a single analysis
+        new ManifestResolver().getOwnResources(first);
+        assertEquals(2, first.enumerations);
+        assertEquals(5, parent.enumerations);
+        first.close();
+        second.close();
+        parent.close();
+    }
+
+    private URL jar(String name) throws IOException {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .write(temp.newFile(name));
+        return jar.toURI().toURL();
+    }
+
+    private static String manifest(URL jar) {
+        return "jar:" + jar + "!/META-INF/MANIFEST.MF";
+    }
+
+    private static final class CountingClassLoader extends URLClassLoader {
+        private int enumerations;
+
+        CountingClassLoader(URL jar, ClassLoader parent) {
+            super(new URL[]{jar}, parent);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            enumerations++;
+            return super.getResources(name);
+        }
+    }
+}
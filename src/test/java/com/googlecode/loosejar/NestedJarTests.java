@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class NestedJarTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void findsTheOuterFile() throws IOException {
+        File outer = new ZipBuilder().stored("x", new byte[1]).write(temp.newFile("app.jar"));
+
+        assertEquals(outer, NestedJar.outerFile(nested(outer, "BOOT-INF/lib/lib.jar")));
+        assertEquals(outer, NestedJar.outerFile(nested(outer, "a.jar!/b.jar")));
+        assertNull(NestedJar.outerFile(outer));
+        assertNull(NestedJar.outerFile(new File(temp.getRoot(), "missing.jar!/lib.jar")));
+    }
+
+    @Test
+    public void readsAStoredJarInPlace() throws IOException {
+        byte[] inner = new ZipBuilder()
+                .deflated("lib/A.class", ZipBuilder.data(500))
+                .stored("lib/B.class", ZipBuilder.data(20))
+                .build();
+        File outer = new ZipBuilder()
+                .deflated("BOOT-INF/classes/App.class", ZipBuilder.data(10))
+                .stored("BOOT-INF/lib/lib.jar", inner)
+                .write(temp.newFile("app.jar"));
+
+        ClassEntries classes = NestedJar.readClasses(nested(outer, "BOOT-INF/lib/lib.jar"));
+        assertEquals(Arrays.asList("lib.A", "lib.B"), classes.names());
+        assertEquals(500, classes.size(0));
+        assertEquals(20, classes.compressedSize(1));
+    }
+
+    @Test
+    public void streamsADeflatedJar() throws IOException {
+        byte[] inner = new ZipBuilder()
+                .stored("lib/A.class", ZipBuilder.data(64))
+                .stored("lib/notes.txt", ZipBuilder.data(8))
+                .build();
+        File outer = new ZipBuilder().deflated("WEB-INF/lib/lib.jar", inner).write(temp.newFile("app.war"));
+
+        ClassEntries classes = NestedJar.readClasses(nested(outer, "WEB-INF/lib/lib.jar"));
+        assertEquals(Arrays.asList("lib.A"), classes.names());
+        assertEquals(64, classes.size(0));
+    }
+
+    @Test
+    public void readsSeveralLevelsOfNesting() throws IOException {
+        byte[] innermost = new ZipBuilder().stored("deep/D.class", ZipBuilder.data(5)).build();
+        byte[] middle = new ZipBuilder().deflated("lib/deep.jar", innermost).build();
+        File outer = new ZipBuilder().stored("lib/middle.jar", middle).write(temp.newFile("app.jar"));
+
+        ClassEntries classes = NestedJar.readClasses(nested(outer, "lib/middle.jar!/lib/deep.jar"));
+        assertEquals(Arrays.asList("deep.D"), classes.names());
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsAMissingEntry() throws IOException {
+        File outer = new ZipBuilder().stored("lib/a.jar", new ZipBuilder().build()).write(temp.newFile("app.jar"));
+        NestedJar.readClasses(nested(outer, "lib/b.jar"));
+    }
+
+    @Test
+    public void measuresANestedJarByItsEntry() throws IOException {
+        byte[] inner = new ZipBuilder().stored("lib/A.class", ZipBuilder.data(100)).build();
+        byte[] deep = new ZipBuilder().stored("deep/D.class", ZipBuilder.data(5)).build();
+        byte[] middle = new ZipBuilder().stored("lib/deep.jar", deep).build();
+        File outer = new ZipBuilder()
+                .deflated("BOOT-INF/lib/lib.jar", inner)
+                .stored("BOOT-INF/lib/middle.jar", middle)
+                .deflated("BOOT-INF/lib/packed.jar", middle)
+                .write(temp.newFile("app.jar"));
+
+        assertEquals(outer.length(), NestedJar.length(outer));
+        assertEquals(inner.length, NestedJar.length(nested(outer, "BOOT-INF/lib/lib.jar")));
+        assertEquals(deep.length, NestedJar.length(nested(outer, "BOOT-INF/lib/middle.jar!/lib/deep.jar")));
+        // neither a missing entry nor one inside a deflated jar is worth reading just to be ordered
+        assertEquals(outer.length(), NestedJar.length(nested(outer, "BOOT-INF/lib/missing.jar")));
+        assertEquals(outer.length(), NestedJar.length(nested(outer, "BOOT-INF/lib/packed.jar!/lib/deep.jar")));
+    }
+
+    private static File nested(File outer, String entries) {
+        return new File(outer.getPath() + "!" + File.separator + entries.replace("!/", "!" + File.separator)
+                .replace('/', File.separatorChar));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.loosejar.output.BinarySummarizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class SnapshotMergerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void mergesTheSnapshotsJarByJarAndClassByClass() throws IOException {
+        List<File> snapshots = Arrays.asList(
+                snapshot("jar 3 /lib/a.jar", "  a.A", "  a.C", "jar 2 /lib/c.jar", "  c.A"),
+                snapshot("jar 4 /lib/a.jar", "  a.B", "  a.C", "jar 1 /lib/b.jar", "  b.A"),
+                snapshot("jar 2 /lib/c.jar", "jar 5 /lib/d.jar", "  d.A"));
+        File output = temp.newFile("merged.usage");
+
+        new SnapshotMerger(true).merge(snapshots, output);
+
+        assertEquals(Arrays.asList("# loosejar usage 1",
+                "jar 4 " + new File("/lib/a.jar").getPath(), "  a.A", "  a.B", "  a.C",
+                "jar 1 " + new File("/lib/b.jar").getPath(), "  b.A",
+                "jar 2 " + new File("/lib/c.jar").getPath(), "  c.A",
+                "jar 5 " + new File("/lib/d.jar").getPath(), "  d.A"), lines(output));
+    }
+
+    @Test
+    public void writesTheUtilizationOfEachJar() throws IOException {
+        List<File> snapshots = Arrays.asList(
+                snapshot("jar 4 /lib/a.jar", "  a.A"),
+                snapshot("jar 4 /lib/a.jar", "  a.A", "  a.B"));
+        File output = temp.newFile("merged.csv");
+
+        new SnapshotMerger(false).merge(snapshots, output);
+
+        assertEquals(Arrays.asList("\"Jar\",\"Utilization\",\"Loaded Classes\",\"Total Classes\"",
+                String.format("\"%s\",\"%.2f%%\",\"2\",\"4\"", new File("/lib/a.jar").getPath(), 50.0)),
+                lines(output));
+    }
+
+    @Test
+    public void mergesMoreSnapshotsThanCanBeOpenAtOnce() throws IOException {
+        List<File> snapshots = new ArrayList<File>();
+        List<String> expected = new ArrayList<String>();
+        expected.add("# loosejar usage 1");
+        expected.add("jar 1000 " + new File("/lib/a.jar").getPath());
+        for (int i = 0; i < SnapshotMerger.MAX_OPEN_FILES * 2 + 3; i++) {
+            String className = String.format("a.C%04d", i);
+            snapshots.add(snapshot("jar 1000 /lib/a.jar", "  " + className));
+            expected.add("  " + className);
+        }
+        // the same classes once more, in the opposite order of the snapshots
+        List<File> reversed = new ArrayList<File>(snapshots);
+        Collections.reverse(reversed);
+        snapshots.addAll(reversed);
+        File output = temp.newFile("merged.usage");
+
+        new SnapshotMerger(true).merge(snapshots, output);
+
+        assertEquals(expected, lines(output));
+    }
+
+    @Test
+    public void mergesBinarySnapshots() throws IOException {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("merge/A.class", new byte[1])
+                .stored("merge/B.class", new byte[1])
+                .stored("merge/C.class", new byte[1])
+                .write(temp.newFile("lib.jar"));
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        File binary = temp.newFile("snapshot.bin");
+        try {
+            Map<ClassLoader, List<String>> map = new LinkedHashMap<ClassLoader, List<String>>();
+            map.put(loader, Arrays.asList("merge.B"));
+            OutputStream out = new FileOutputStream(binary);
+            try {
+                new BinarySummarizer().summarize(map, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            loader.close();
+        }
+        File output = temp.newFile("merged.usage");
+
+        new SnapshotMerger(true).merge(Arrays.asList(binary, snapshot("jar 3 " + jar.getPath(), "  merge.A")), output);
+
+        assertEquals(Arrays.asList("# loosejar usage 1", "jar 3 " + jar.getPath(), "  merge.A", "  merge.B"),
+                lines(output));
+    }
+
+    @Test
+    public void rejectsJarsOutOfOrder() throws IOException {
+        assertRejected(snapshot("jar 1 /lib/b.jar", "  b.A", "jar 1 /lib/a.jar", "  a.A"), "out of order");
+    }
+
+    @Test
+    public void rejectsRepeatedJars() throws IOException {
+        assertRejected(snapshot("jar 1 /lib/a.jar", "  a.A", "jar 1 /lib/a.jar", "  a.B"), "repeated");
+    }
+
+    @Test
+    public void rejectsClassesOutOfOrder() throws IOException {
+        assertRejected(snapshot("jar 2 /lib/a.jar", "  a.B", "  a.A"), "out of order");
+    }
+
+    @Test
+    public void rejectsRepeatedClasses() throws IOException {
+        assertRejected(snapshot("jar 2 /lib/a.jar", "  a.A", "  a.A"), "repeated");
+    }
+
+    private void assertRejected(File snapshot, String message) throws IOException {
+        try {
+            new SnapshotMerger(true).merge(Arrays.asList(snapshot(), snapshot), temp.newFile());
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private File snapshot(String... lines) throws IOException {
+        File snapshot = temp.newFile();
+        Writer out = new OutputStreamWriter(new FileOutputStream(snapshot));
+        try {
+            out.write("# loosejar usage 1\n");
+            for (String line : lines) {
+                out.write(line.startsWith("jar ") ? "jar " + line.substring(4, line.indexOf(' ', 4) + 1)
+                        + new File(line.substring(line.indexOf(' ', 4) + 1)).getPath() : line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return snapshot;
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath());
+    }
+}
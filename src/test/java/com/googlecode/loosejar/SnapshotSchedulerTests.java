@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class SnapshotSchedulerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final ClassLoadRecorder recorder = new ClassLoadRecorder(10, 1);
+    private File snapshotFile;
+    private URLClassLoader loader;
+    private ProtectionDomain domain;
+
+    @Before
+    public void setUp() throws IOException {
+        File jar = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("snap/A.class", new byte[1])
+                .stored("snap/B.class", new byte[1])
+                .write(temp.newFile("snap.jar"));
+        loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        domain = new ProtectionDomain(new CodeSource(jar.toURI().toURL(), (Certificate[]) null), null);
+        snapshotFile = new File(temp.getRoot(), "snapshots.txt");
+        System.setProperty("loosejar.snapshotFile", snapshotFile.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty("loosejar.snapshotFile");
+        System.clearProperty("loosejar.format");
+        loader.close();
+    }
+
+    @Test
+    public void appendsTheChangesAfterAFullReport() throws IOException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(recorder);
+        recorder.transform(loader, "snap/A", null, domain, new byte[0]);
+        scheduler.takeSnapshot();
+        String first = read();
+        assertTrue(first, first.contains("snapshot #1"));
+        assertTrue(first, first.contains("full report"));
+        assertTrue(first, first.contains("loaded 1 of 2 classes"));
+
+        recorder.transform(loader, "snap/B", null, domain, new byte[0]);
+        scheduler.takeSnapshot();
+        String second = read().substring(first.length());
+        assertTrue(second, second.contains("snapshot #2"));
+        assertTrue(second, second.contains("Utilization: 100.00% (was 50.00%) - loaded 2 of 2 classes."));
+        assertTrue(second, second.contains("        + snap.B\n"));
+        assertFalse(second, second.contains("snap.A"));
+
+        scheduler.takeSnapshot();
+        String third = read().substring(first.length() + second.length());
+        assertTrue(third, third.contains("No changes since the previous snapshot."));
+    }
+
+    @Test
+    public void replacesTheFullReportOfOtherFormats() throws IOException {
+        System.setProperty("loosejar.format", "csv");
+        SnapshotScheduler scheduler = new SnapshotScheduler(recorder);
+        recorder.transform(loader, "snap/A", null, domain, new byte[0]);
+        scheduler.takeSnapshot();
+        assertTrue(read().contains("\"50.00%\""));
+
+        recorder.transform(loader, "snap/B", null, domain, new byte[0]);
+        scheduler.takeSnapshot();
+        String report = read();
+        assertTrue(report, report.contains("\"100.00%\""));
+        assertFalse(report, report.contains("\"50.00%\""));
+        assertEquals(1, report.split("\"Jar\"", -1).length - 1);
+    }
+
+    @Test
+    public void skipsTheSnapshotsWithoutARecorder() throws IOException {
+        new SnapshotScheduler(null).takeSnapshot();
+        assertFalse(snapshotFile.exists());
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(snapshotFile.toPath()), "UTF-8");
+    }
+}
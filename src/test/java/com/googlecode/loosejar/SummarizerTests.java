@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.loosejar.output.CSVFormatSummarizer;
+import com.googlecode.loosejar.output.JsonSummarizer;
+import com.googlecode.loosejar.output.Summarizer;
+import com.googlecode.loosejar.output.UsageSummarizer;
+import com.googlecode.loosejar.output.VerbalSummarizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kyrill Alyoshin
+ */
+public class SummarizerTests {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private URLClassLoader first;
+    private URLClassLoader second;
+    private Map<ClassLoader, List<String>> map;
+
+    @Before
+    public void setUp() throws IOException {
+        first = loader("first.jar", "stream/first/A", "stream/first/B");
+        second = loader("second.jar", "stream/second/C");
+        map = new LinkedHashMap<ClassLoader, List<String>>();
+        map.put(first, Arrays.asList("stream.first.A"));
+        map.put(second, Arrays.asList("stream.second.C"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void streamsTheSameSummaryAsTheStringForm() throws IOException {
+        Summarizer[] summarizers = {new VerbalSummarizer(), new CSVFormatSummarizer(), new UsageSummarizer(),
+                new JsonSummarizer(false), new JsonSummarizer(true)};
+        for (Summarizer summarizer : summarizers) {
+            StringWriter out = new StringWriter();
+            summarizer.summarize(map, out);
+            assertEquals(summarizer.getClass().getName(), summarizer.summarize(map), out.toString());
+        }
+        assertTrue(new VerbalSummarizer().summarize(map).contains("loaded 1 of 2 classes"));
+    }
+
+    @Test
+    public void flushesAfterEachClassLoader() throws IOException {
+        final StringBuilder flushed = new StringBuilder();
+        StringWriter out = new StringWriter() {
+            @Override
+            public void flush() {
+                flushed.append(getBuffer().length()).append(' ');
+            }
+        };
+        new CSVFormatSummarizer().summarize(map, out);
+
+        String[] lengths = flushed.toString().trim().split(" ");
+        assertEquals(2, lengths.length);
+        // the first classloader is out before the second one is summarized
+        assertTrue(Integer.parseInt(lengths[0]) < Integer.parseInt(lengths[1]));
+        assertEquals(out.getBuffer().length(), Integer.parseInt(lengths[1]));
+    }
+
+    @Test
+    public void streamsTheStringFormOfOtherSummarizers() throws IOException {
+        Summarizer summarizer = new Summarizer() {
+            public String summarize(Map<ClassLoader, List<String>> classLoaderToClassListMap) {
+                return classLoaderToClassListMap.size() + " classloaders";
+            }
+        };
+        StringBuilder out = new StringBuilder();
+        summarizer.summarize(map, out);
+        assertEquals("2 classloaders", out.toString());
+
+        out.setLength(0);
+        summarizer.summarize(ClassLoaderAnalyzer.analyzeAll(map), out);
+        assertEquals("2 classloaders", out.toString());
+    }
+
+    @Test
+    public void listsTheJarsByReclaimableSize() throws IOException {
+        File small = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("sort/small/A.class", ZipBuilder.data(100))
+                .write(temp.newFile("small.jar"));
+        File large = new ZipBuilder()
+                .stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"))
+                .stored("sort/large/A.class", ZipBuilder.data(5000))
+                .write(temp.newFile("large.jar"));
+        URLClassLoader loader = new URLClassLoader(new URL[]{small.toURI().toURL(), large.toURI().toURL()}, null);
+        Map<ClassLoader, List<String>> unused = new LinkedHashMap<ClassLoader, List<String>>();
+        unused.put(loader, Arrays.<String>asList());
+
+        String classpathOrder = new CSVFormatSummarizer().summarize(unused);
+        assertTrue(classpathOrder.indexOf("small.jar") < classpathOrder.indexOf("large.jar"));
+        System.setProperty("loosejar.sort", "reclaimable");
+        try {
+            String bySize = new CSVFormatSummarizer().summarize(unused);
+            assertTrue(bySize.indexOf("large.jar") < bySize.indexOf("small.jar"));
+        } finally {
+            System.clearProperty("loosejar.sort");
+            loader.close();
+        }
+    }
+
+    private URLClassLoader loader(String name, String... classes) throws IOException {
+        ZipBuilder zip = new ZipBuilder().stored("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"));
+        for (String c : classes) {
+            zip.stored(c + ".class", new byte[1]);
+        }
+        File jar = zip.write(temp.newFile(name));
+        return new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2001-2016 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.googlecode.loosejar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes zip archives byte by byte for the tests, so that the layouts the readers have to cope
+ * with (data descriptors with and without their signature, Zip64 records, comments, data prepended
+ * to the archive) can be produced on demand, which {@link java.util.zip.ZipOutputStream} does not allow.
+ *
+ * @author Kyrill Alyoshin
+ */
+final class ZipBuilder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private byte[] prefix = new byte[0];
+    private String comment = "";
+    private boolean zip64;
+    private boolean utf8 = true;
+
+    /**
+     * Add a stored entry.
+     */
+    ZipBuilder stored(String name, byte[] data) {
+        entries.add(new Entry(name, data, false, false, false, null));
+        return this;
+    }
+
+    /**
+     * Add a deflated entry.
+     */
+    ZipBuilder deflated(String name, byte[] data) {
+        entries.add(new Entry(name, data, true, false, false, null));
+        return this;
+    }
+
+    /**
+     * Add a deflated entry followed by a data descriptor, with or without its optional signature.
+     */
+    ZipBuilder described(String name, byte[] data, boolean signature) {
+        entries.add(new Entry(name, data, true, true, signature, null));
+        return this;
+    }
+
+    /**
+     * Add a stored entry with a comment in its central directory header.
+     */
+    ZipBuilder commented(String name, byte[] data, String entryComment) {
+        entries.add(new Entry(name, data, false, false, false, entryComment));
+        return this;
+    }
+
+    /**
+     * Prepend the supplied data to the archive without adjusting any offsets, the way a launch
+     * script is prepended to an executable jar.
+     */
+    ZipBuilder prefix(byte[] data) {
+        this.prefix = data;
+        return this;
+    }
+
+    ZipBuilder comment(String archiveComment) {
+        this.comment = archiveComment;
+        return this;
+    }
+
+    /**
+     * Write every size and offset in the Zip64 extra fields and the Zip64 end of central directory record.
+     */
+    ZipBuilder zip64() {
+        this.zip64 = true;
+        return this;
+    }
+
+    /**
+     * Do not flag the entry names as UTF-8.
+     */
+    ZipBuilder legacyNames() {
+        this.utf8 = false;
+        return this;
+    }
+
+    byte[] build() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(prefix, 0, prefix.length);
+
+        ByteArrayOutputStream central = new ByteArrayOutputStream();
+        for (Entry entry : entries) {
+            long offset = out.size() - prefix.length;
+            byte[] name = entry.name.getBytes(UTF_8);
+            int flags = (entry.descriptor ? 0x8 : 0) | (utf8 ? 0x800 : 0);
+            int method = entry.deflate ? 8 : 0;
+
+            int32(out, 0x04034b50);
+            int16(out, zip64 ? 45 : 20);
+            int16(out, flags);
+            int16(out, method);
+            int16(out, 0);
+            int16(out, 0x21);
+            int32(out, entry.descriptor ? 0 : entry.crc);
+            int32(out, entry.descriptor ? 0 : entry.compressed.length);
+            int32(out, entry.descriptor ? 0 : entry.data.length);
+            int16(out, name.length);
+            int16(out, 0);
+            out.write(name, 0, name.length);
+            out.write(entry.compressed, 0, entry.compressed.length);
+            if (entry.descriptor) {
+                if (entry.signature) {
+                    int32(out, 0x08074b50);
+                }
+                int32(out, entry.crc);
+                int32(out, entry.compressed.length);
+                int32(out, entry.data.length);
+            }
+
+            byte[] entryComment = entry.comment == null ? new byte[0] : entry.comment.getBytes(UTF_8);
+            int32(central, 0x02014b50);
+            int16(central, 45);
+            int16(central, zip64 ? 45 : 20);
+            int16(central, flags);
+            int16(central, method);
+            int16(central, 0);
+            int16(central, 0x21);
+            int32(central, entry.crc);
+            int32(central, zip64 ? 0xFFFFFFFF : entry.compressed.length);
+            int32(central, zip64 ? 0xFFFFFFFF : entry.data.length);
+            int16(central, name.length);
+            int16(central, zip64 ? 28 : 0);
+            int16(central, entryComment.length);
+            int16(central, 0);
+            int16(central, 0);
+            int32(central, 0);
+            int32(central, zip64 ? 0xFFFFFFFF : (int) offset);
+            central.write(name, 0, name.length);
+            if (zip64) {
+                int16(central, 0x0001);
+                int16(central, 24);
+                int64(central, entry.data.length);
+                int64(central, entry.compressed.length);
+                int64(central, offset);
+            }
+            central.write(entryComment, 0, entryComment.length);
+        }
+
+        long directoryOffset = out.size() - prefix.length;
+        out.write(central.toByteArray(), 0, central.size());
+        if (zip64) {
+            long zip64End = out.size() - prefix.length;
+            int32(out, 0x06064b50);
+            int64(out, 44);
+            int16(out, 45);
+            int16(out, 45);
+            int32(out, 0);
+            int32(out, 0);
+            int64(out, entries.size());
+            int64(out, entries.size());
+            int64(out, central.size());
+            int64(out, directoryOffset);
+
+            int32(out, 0x07064b50);
+            int32(out, 0);
+            int64(out, zip64End);
+            int32(out, 1);
+        }
+
+        byte[] archiveComment = comment.getBytes(UTF_8);
+        int32(out, 0x06054b50);
+        int16(out, 0);
+        int16(out, 0);
+        int16(out, zip64 ? 0xFFFF : entries.size());
+        int16(out, zip64 ? 0xFFFF : entries.size());
+        int32(out, zip64 ? 0xFFFFFFFF : central.size());
+        int32(out, zip64 ? 0xFFFFFFFF : (int) directoryOffset);
+        int16(out, archiveComment.length);
+        out.write(archiveComment, 0, archiveComment.length);
+        return out.toByteArray();
+    }
+
+    File write(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(build());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Return some data of the supplied length which compresses, but not to nothing.
+     */
+    static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 7 == 0 ? i : 'a' + i % 5);
+        }
+        return data;
+    }
+
+    private static void int16(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    private static void int32(ByteArrayOutputStream out, int value) {
+        int16(out, value);
+        int16(out, value >>> 16);
+    }
+
+    private static void int64(ByteArrayOutputStream out, long value) {
+        int32(out, (int) value);
+        int32(out, (int) (value >>> 32));
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final byte[] data;
+        private final byte[] compressed;
+        private final int crc;
+        private final boolean deflate;
+        private final boolean descriptor;
+        private final boolean signature;
+        private final String comment;
+
+        Entry(String name, byte[] data, boolean deflate, boolean descriptor, boolean signature, String comment) {
+            this.name = name;
+            this.data = data;
+            this.deflate = deflate;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.comment = comment;
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            this.crc = (int) crc32.getValue();
+            this.compressed = deflate ? deflate(data) : data;
+        }
+
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}